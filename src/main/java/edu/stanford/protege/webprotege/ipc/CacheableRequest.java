@@ -0,0 +1,36 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+
+/**
+ * A request whose responses may be cached by the {@link CommandExecutor} that executes it.  Responses are cached
+ * per user, so a response that is cached for one user is never returned to another user.  Only requests that do not
+ * modify state, and whose responses may be slightly out of date, should be cacheable.
+ */
+public interface CacheableRequest<R extends Response> extends Request<R> {
+
+    /**
+     * Gets the amount of time that a response to this request may be cached for
+     * @return The time to live
+     */
+    @Nonnull
+    @JsonIgnore
+    Duration getCacheTimeToLive();
+
+    /**
+     * Gets the key that responses to this request are cached under.  Requests that have equal keys (and that are
+     * executed by the same user) have the same response.  By default, the key is the request itself, so requests
+     * that use the default must implement equals and hashCode.
+     * @return The cache key
+     */
+    @Nonnull
+    @JsonIgnore
+    default Object getCacheKey() {
+        return this;
+    }
+}
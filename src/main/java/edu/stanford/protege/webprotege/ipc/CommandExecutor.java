@@ -2,8 +2,14 @@ package edu.stanford.protege.webprotege.ipc;
 
 import edu.stanford.protege.webprotege.common.Request;
 import edu.stanford.protege.webprotege.common.Response;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Matthew Horridge
@@ -13,4 +19,64 @@ import java.util.concurrent.CompletableFuture;
 public interface CommandExecutor<Q extends Request<R>, R extends Response> {
 
     CompletableFuture<R> execute(Q request, ExecutionContext executionContext);
+
+    /**
+     * Execute a request with a deadline.  If a response has not been received within the specified timeout then
+     * the returned future is completed exceptionally with a {@link CommandExecutionException} that has a status
+     * of {@link HttpStatus#GATEWAY_TIMEOUT}.  The timeout is cancelled as soon as the response is received, so that
+     * the timer does not hold on to the request until the deadline has passed.
+     * @param request The request
+     * @param executionContext The execution context
+     * @param timeout The maximum amount of time to wait for the response
+     * @return A future of the response
+     */
+    default CompletableFuture<R> execute(Q request, ExecutionContext executionContext, Duration timeout) {
+        var future = execute(request, executionContext);
+        var deadline = new CompletableFuture<Void>();
+        deadline.completeOnTimeout(null, timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .thenRun(() -> future.completeExceptionally(new CommandExecutionException(HttpStatus.GATEWAY_TIMEOUT)));
+        // Cancelling the deadline removes its task from the timer
+        future.whenComplete((response, error) -> deadline.cancel(false));
+        return future;
+    }
+
+    /**
+     * Execute a request reactively.  The request is sent when the returned {@link Mono} is subscribed to.  If the
+     * subscription is cancelled, for example, because the caller has gone away or because of a
+     * {@link Mono#timeout(Duration)}, then the future that is returned by {@link #execute(Request, ExecutionContext)}
+     * is cancelled, so that implementations can stop waiting for the reply.
+     * @param request The request
+     * @param executionContext The execution context
+     * @return A {@link Mono} of the response
+     */
+    default Mono<R> executeReactive(Q request, ExecutionContext executionContext) {
+        return Mono.fromFuture(() -> execute(request, executionContext));
+    }
+
+    /**
+     * Execute a request whose response is streamed by a {@link StreamingCommandHandler}.  The request is sent when
+     * the returned {@link Flux} is subscribed to, and the chunks of the response are emitted as they are received.
+     * By default, the response is a single chunk that is obtained using
+     * {@link #executeReactive(Request, ExecutionContext)}.
+     * @param request The request
+     * @param executionContext The execution context
+     * @return A {@link Flux} of the chunks of the response
+     */
+    default Flux<R> executeStreaming(Q request, ExecutionContext executionContext) {
+        return executeReactive(request, executionContext).flux();
+    }
+
+    /**
+     * Execute a list of requests.  Implementations may send the requests to their handler together, so that the
+     * per-request overhead of sending a request and receiving a reply is shared by all requests in the list.
+     * @param requests The requests.  All requests must be for the same channel.
+     * @param executionContext The execution context
+     * @return A list of futures of the responses.  There is one future for each request and the futures are in the
+     * same order as the requests.
+     */
+    default List<CompletableFuture<R>> executeAll(List<Q> requests, ExecutionContext executionContext) {
+        return requests.stream()
+                       .map(request -> execute(request, executionContext))
+                       .toList();
+    }
 }
@@ -22,4 +22,34 @@ public class Headers {
     public static final String PROJECT_ID = PREFIX + "projectId";
 
     public static final String ACCESS_TOKEN = PREFIX + "accessToken";
+
+    /**
+     * Present on request messages that contain a list of requests, and on the reply messages for these requests.
+     * The value is the number of requests in the batch.
+     */
+    public static final String BATCH = PREFIX + "batch";
+
+    /**
+     * Present on cancel notices, which are sent on a request channel when the caller is no longer interested in the
+     * reply to a request.  The value is the correlation id of the request.
+     */
+    public static final String CANCEL = PREFIX + "cancel";
+
+    /**
+     * Present on request messages whose caller wants the response to be streamed.  On reply messages, the value is
+     * the sequence number, starting from zero, of a chunk of a streamed response.
+     */
+    public static final String STREAM = PREFIX + "stream";
+
+    /**
+     * Present on the last reply message of a streamed response.  The value is the number of chunks in the response.
+     * This message has no payload.
+     */
+    public static final String STREAM_END = PREFIX + "streamEnd";
+
+    /**
+     * Present on request messages.  The value is the time, in milliseconds since the epoch, after which the caller will
+     * no longer wait for the reply.
+     */
+    public static final String DEADLINE = PREFIX + "deadline";
 }
@@ -0,0 +1,34 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * A {@link CommandHandler} that streams its response as a sequence of chunks.  Each chunk is sent to the caller as
+ * soon as it is emitted, so the caller receives the first chunks before the whole response has been produced, and
+ * neither side needs to hold the whole response in memory.  Streamed responses are requested with
+ * {@link CommandExecutor#executeStreaming(Request, ExecutionContext)}.
+ */
+public interface StreamingCommandHandler<Q extends Request<R>, R extends Response> extends CommandHandler<Q, R> {
+
+    /**
+     * Handle a request and return a stream of response chunks
+     * @param request The request
+     * @param executionContext The execution context
+     * @return The chunks of the response
+     */
+    Flux<R> handleStreamingRequest(Q request, ExecutionContext executionContext);
+
+    /**
+     * Handles a request whose caller did not ask for a streamed response.  By default, this fails with a
+     * {@link CommandExecutionException} that has a status of {@link HttpStatus#BAD_REQUEST}.
+     */
+    @Override
+    default Mono<R> handleRequest(Q request, ExecutionContext executionContext) {
+        return Mono.error(new CommandExecutionException(HttpStatus.BAD_REQUEST));
+    }
+}
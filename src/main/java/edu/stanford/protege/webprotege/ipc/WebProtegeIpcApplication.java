@@ -4,18 +4,25 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import edu.stanford.protege.webprotege.authorization.GetAuthorizationStatusRequest;
 import edu.stanford.protege.webprotege.authorization.GetAuthorizationStatusResponse;
+import edu.stanford.protege.webprotege.authorization.GetAuthorizedActionsRequest;
+import edu.stanford.protege.webprotege.authorization.GetAuthorizedActionsResponse;
 import edu.stanford.protege.webprotege.common.Request;
 import edu.stanford.protege.webprotege.common.Response;
 import edu.stanford.protege.webprotege.common.WebProtegeCommonConfiguration;
 import edu.stanford.protege.webprotege.ipc.pulsar.*;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
 import org.apache.pulsar.client.admin.PulsarAdmin;
 import org.apache.pulsar.client.admin.PulsarAdminException;
 import org.apache.pulsar.client.admin.internal.PulsarAdminBuilderImpl;
+import org.apache.pulsar.client.api.CompressionType;
 import org.apache.pulsar.client.api.PulsarClient;
 import org.apache.pulsar.client.api.PulsarClientException;
 import org.apache.pulsar.common.policies.data.TenantInfoImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.boot.SpringApplication;
@@ -26,6 +33,9 @@ import org.springframework.cache.caffeine.CaffeineCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
 import org.springframework.context.annotation.Scope;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -65,6 +75,61 @@ public class WebProtegeIpcApplication {
 		return new PulsarCommandExecutor<>(GetAuthorizationStatusResponse.class);
 	}
 
+	@Bean
+	PulsarCommandExecutor<GetAuthorizedActionsRequest, GetAuthorizedActionsResponse> executorForGetAuthorizedActionsRequest() {
+		return new PulsarCommandExecutor<>(GetAuthorizedActionsResponse.class);
+	}
+
+	@Bean
+	CommandTimeoutTimer commandTimeoutTimer(@Value("${webprotege.pulsar.command-executor.timeoutTickMillis:100}") long tickMillis,
+											@Value("${webprotege.pulsar.command-executor.timeoutTicksPerWheel:512}") int ticksPerWheel) {
+		return new CommandTimeoutTimer(Duration.ofMillis(tickMillis), ticksPerWheel);
+	}
+
+	@Bean
+	CommandLogSampler commandLogSampler(@Value("${webprotege.pulsar.logging.sampleRate:1.0}") double sampleRate,
+										@Value("${webprotege.pulsar.logging.channelSampleRates:}") String channelSampleRates) {
+		return new CommandLogSampler(sampleRate, CommandLogSampler.parseChannelSampleRates(channelSampleRates));
+	}
+
+	@Bean
+	ChunkingSettings chunkingSettings(@Value("${webprotege.pulsar.chunking.enabled:false}") boolean enabled,
+									  @Value("${webprotege.pulsar.chunking.maxPendingChunkedMessages:10}") int maxPendingChunkedMessages,
+									  @Value("${webprotege.pulsar.chunking.incompleteChunkedMessageTimeoutMillis:60000}") long incompleteChunkedMessageTimeoutMillis) {
+		return new ChunkingSettings(enabled, maxPendingChunkedMessages, Duration.ofMillis(incompleteChunkedMessageTimeoutMillis));
+	}
+
+	@Bean
+	PulsarReplyInbox pulsarReplyInbox(@Value("${spring.application.name}") String applicationName,
+									  PulsarClient pulsarClient,
+									  ObjectMapper objectMapper,
+									  CommandTimeoutTimer commandTimeoutTimer,
+									  @Value("${webprotege.pulsar.command-executor.replyAddressingMode:INSTANCE}") ReplyAddressingMode replyAddressingMode,
+									  ChunkingSettings chunkingSettings,
+									  @Value("${webprotege.pulsar.command-executor.streamBufferSize:256}") int streamBufferSize) {
+		return new PulsarReplyInbox(applicationName, tenant, pulsarClient, objectMapper, commandTimeoutTimer, replyAddressingMode, chunkingSettings, streamBufferSize);
+	}
+
+	@Bean
+	CircuitBreakers circuitBreakers(@Value("${webprotege.pulsar.command-executor.circuitBreaker.enabled:false}") boolean enabled,
+									@Value("${webprotege.pulsar.command-executor.circuitBreaker.windowSize:20}") int windowSize,
+									@Value("${webprotege.pulsar.command-executor.circuitBreaker.minimumCalls:10}") int minimumCalls,
+									@Value("${webprotege.pulsar.command-executor.circuitBreaker.failureRateThreshold:0.5}") double failureRateThreshold,
+									@Value("${webprotege.pulsar.command-executor.circuitBreaker.openDurationMillis:10000}") long openDurationMillis,
+									@Value("${webprotege.pulsar.command-executor.circuitBreaker.halfOpenProbes:3}") int halfOpenProbes) {
+		return new CircuitBreakers(enabled,
+								   windowSize,
+								   minimumCalls,
+								   failureRateThreshold,
+								   Duration.ofMillis(openDurationMillis),
+								   halfOpenProbes);
+	}
+
+	@Bean
+	LocalCommandHandlers localCommandHandlers(@Value("${webprotege.pulsar.command-executor.localDispatch.enabled:false}") boolean enabled) {
+		return new LocalCommandHandlers(enabled);
+	}
+
 	@Bean
 	PulsarAdmin pulsarAdmin() {
 		try {
@@ -104,18 +169,74 @@ public class WebProtegeIpcApplication {
 						   .serviceUrl(pulsarServiceUrl).build();
 	}
 
+	@Bean
+	PulsarCompressionPolicy pulsarCompressionPolicy(@Value("${webprotege.pulsar.compression.type:NONE}") CompressionType compressionType,
+													@Value("${webprotege.pulsar.compression.overrides:}") String overrides,
+													@Value("${webprotege.pulsar.compression.minReplySizeBytes:0}") int minReplySize) {
+		return new PulsarCompressionPolicy(compressionType, PulsarCompressionPolicy.parseCompressionTypes(overrides), minReplySize);
+	}
+
 	@Bean
 	PulsarProducersManager pulsarProducersManager(PulsarClient pulsarClient,
-												  @Value("${spring.application.name}") String applicationName) {
-		return new PulsarProducersManager(pulsarClient, applicationName);
+												  @Value("${spring.application.name}") String applicationName,
+												  PulsarCompressionPolicy compressionPolicy) {
+		return new PulsarProducersManager(pulsarClient, applicationName, compressionPolicy);
+	}
+
+	@Bean
+	PulsarReplySender pulsarReplySender(PulsarProducersManager producersManager,
+										ObjectProvider<ObservationRegistry> observationRegistry,
+										ChunkingSettings chunkingSettings,
+										PulsarCompressionPolicy compressionPolicy,
+										@Value("${webprotege.pulsar.command-handler.replyBatchingMaxPublishDelayMicros:100}") long replyBatchingMaxPublishDelayMicros) {
+		return new PulsarReplySender(tenant,
+									 producersManager,
+									 Duration.ofNanos(replyBatchingMaxPublishDelayMicros * 1000),
+									 observationRegistry.getIfAvailable(() -> ObservationRegistry.NOOP),
+									 chunkingSettings,
+									 compressionPolicy);
+	}
+
+	@Bean
+	CommandMetrics commandMetrics(ObjectProvider<MeterRegistry> meterRegistry,
+								  PulsarReplyInbox replyInbox,
+								  PulsarReplySender replySender,
+								  CommandLogSampler logSampler,
+								  CommandResponseCache responseCache,
+								  AuthorizationStatusCache authorizationStatusCache) {
+		// Without a meter registry the meters are registered with an empty composite registry, which records nothing
+		var commandMetrics = new CommandMetrics(meterRegistry.getIfAvailable(CompositeMeterRegistry::new));
+		commandMetrics.bindReplyInbox(replyInbox);
+		commandMetrics.bindReplySender(replySender);
+		commandMetrics.bindLogSampler(logSampler);
+		commandMetrics.bindResponseCache(responseCache);
+		commandMetrics.bindAuthorizationCache(authorizationStatusCache);
+		return commandMetrics;
 	}
 
 	@Bean
 	PulsarCommandHandlerWrapperFactory pulsarCommandHandlerWrapperFactory(@Value("${spring.application.name}") String applicationName,
 																		  ObjectMapper objectMapper,
-																		  PulsarProducersManager producersManager,
-																		  CommandExecutor<GetAuthorizationStatusRequest, GetAuthorizationStatusResponse> authorizationStatusExecutor,
-																		  PulsarClient pulsarClient) {
+																		  PulsarReplySender replySender,
+																		  CommandExecutor<GetAuthorizedActionsRequest, GetAuthorizedActionsResponse> authorizedActionsExecutor,
+																		  AuthorizationStatusCache authorizationStatusCache,
+																		  CompletedReplyCache completedReplyCache,
+																		  ObjectProvider<ObservationRegistry> observationRegistryProvider,
+																		  CommandLogSampler logSampler,
+																		  ChunkingSettings chunkingSettings,
+																		  PulsarClient pulsarClient,
+																		  @Value("${webprotege.pulsar.command-handler.batchConcurrency:16}") int batchConcurrency,
+																		  @Value("${webprotege.pulsar.command-handler.executor.threads:0}") int handlerThreads,
+																		  @Value("${webprotege.pulsar.command-handler.executor.queueSize:1000}") int handlerQueueSize,
+																		  @Value("${webprotege.pulsar.command-handler.keyShared.enabled:false}") boolean keyShared,
+																		  @Value("${webprotege.pulsar.command-handler.keyShared.maxQueuedRequestsPerKey:100}") int maxQueuedRequestsPerKey,
+																		  @Value("${webprotege.pulsar.command-handler.dropExpiredRequests:false}") boolean dropExpiredRequests,
+																		  @Value("${webprotege.pulsar.command-handler.loadShedding.enabled:false}") boolean loadSheddingEnabled,
+																		  @Value("${webprotege.pulsar.command-handler.loadShedding.mode:REJECT}") LoadShedder.Mode loadSheddingMode,
+																		  @Value("${webprotege.pulsar.command-handler.loadShedding.maxInFlight:200}") int loadSheddingMaxInFlight,
+																		  @Value("${webprotege.pulsar.command-handler.loadShedding.maxLatencyP99Millis:5000}") long loadSheddingMaxLatencyMillis,
+																		  @Value("${webprotege.pulsar.command-handler.loadShedding.windowMillis:10000}") long loadSheddingWindowMillis) {
+		var observationRegistry = observationRegistryProvider.getIfAvailable(() -> ObservationRegistry.NOOP);
 
 		return new PulsarCommandHandlerWrapperFactory() {
 			@Override
@@ -124,8 +245,23 @@ public class WebProtegeIpcApplication {
 														applicationName,
 														pulsarClient,
 														objectMapper,
-														producersManager,
-														authorizationStatusExecutor);
+														replySender,
+														authorizedActionsExecutor,
+														authorizationStatusCache,
+														completedReplyCache,
+														batchConcurrency,
+														handlerThreads,
+														handlerQueueSize,
+														keyShared,
+														maxQueuedRequestsPerKey,
+														dropExpiredRequests,
+														loadSheddingEnabled ? new LoadShedder(loadSheddingMode,
+																							  loadSheddingMaxInFlight,
+																							  Duration.ofMillis(loadSheddingMaxLatencyMillis),
+																							  Duration.ofMillis(loadSheddingWindowMillis)) : null,
+														observationRegistry,
+														logSampler,
+														chunkingSettings);
 			}
 		};
 	}
@@ -137,15 +273,65 @@ public class WebProtegeIpcApplication {
 			String applicationName,
 			PulsarClient pulsarClient,
 			ObjectMapper objectMapper,
-			PulsarProducersManager producersManager,
-			CommandExecutor<GetAuthorizationStatusRequest, GetAuthorizationStatusResponse> authorizationStatusExecutor) {
+			PulsarReplySender replySender,
+			CommandExecutor<GetAuthorizedActionsRequest, GetAuthorizedActionsResponse> authorizedActionsExecutor,
+			AuthorizationStatusCache authorizationStatusCache,
+			CompletedReplyCache completedReplyCache,
+			int batchConcurrency,
+			int handlerThreads,
+			int handlerQueueSize,
+			boolean keyShared,
+			int maxQueuedRequestsPerKey,
+			boolean dropExpiredRequests,
+			@Nullable LoadShedder loadShedder,
+			ObservationRegistry observationRegistry,
+			CommandLogSampler logSampler,
+			ChunkingSettings chunkingSettings) {
 		return new PulsarCommandHandlerWrapper<>(applicationName,
 												 tenant,
 												 pulsarClient,
 												 handler,
 												 objectMapper,
-												 producersManager,
-												 authorizationStatusExecutor);
+												 replySender,
+												 authorizedActionsExecutor,
+												 authorizationStatusCache,
+												 completedReplyCache,
+												 batchConcurrency,
+												 handlerThreads,
+												 handlerQueueSize,
+												 keyShared,
+												 maxQueuedRequestsPerKey,
+												 dropExpiredRequests,
+												 loadShedder,
+												 observationRegistry,
+												 logSampler,
+												 chunkingSettings);
+	}
+
+	@Bean
+	AuthorizationStatusCache authorizationStatusCache(@Value("${webprotege.pulsar.command-handler.authorizationCache.enabled:false}") boolean enabled,
+													  @Value("${webprotege.pulsar.command-handler.authorizationCache.timeToLiveMillis:10000}") long timeToLiveMillis,
+													  @Value("${webprotege.pulsar.command-handler.authorizationCache.maximumSize:10000}") long maximumSize) {
+		return new AuthorizationStatusCache(enabled, Duration.ofMillis(timeToLiveMillis), maximumSize);
+	}
+
+	@Bean
+	CompletedReplyCache completedReplyCache(@Value("${webprotege.pulsar.command-handler.replyCache.enabled:false}") boolean enabled,
+											@Value("${webprotege.pulsar.command-handler.replyCache.timeToLiveMillis:300000}") long timeToLiveMillis,
+											@Value("${webprotege.pulsar.command-handler.replyCache.maximumBytes:67108864}") long maximumBytes) {
+		return new CompletedReplyCache(enabled, Duration.ofMillis(timeToLiveMillis), maximumBytes);
+	}
+
+	@Bean
+	AuthorizationStatusCacheInvalidator authorizationStatusCacheInvalidator(@Value("${spring.application.name}") String applicationName,
+																			PulsarClient pulsarClient,
+																			AuthorizationStatusCache authorizationStatusCache,
+																			@Value("${webprotege.pulsar.command-handler.authorizationCache.invalidatingEventChannels:}") Set<String> invalidatingEventChannels) {
+		return new AuthorizationStatusCacheInvalidator(applicationName,
+													   tenant,
+													   pulsarClient,
+													   authorizationStatusCache,
+													   invalidatingEventChannels);
 	}
 
 	@Bean
@@ -154,6 +340,13 @@ public class WebProtegeIpcApplication {
 					   .expireAfterAccess(10, TimeUnit.MINUTES);
 	}
 
+	@Bean
+	CommandResponseCache commandResponseCache(ObjectMapper objectMapper,
+											  @Value("${webprotege.pulsar.command-executor.responseCache.maximumWeightBytes:67108864}") long maximumWeightBytes,
+											  @Value("${webprotege.pulsar.command-executor.responseCache.refreshAheadRatio:0.8}") double refreshAheadRatio) {
+		return new CommandResponseCache(objectMapper, maximumWeightBytes, refreshAheadRatio);
+	}
+
 	@Bean
 	public CacheManager cacheManager(Caffeine<Object, Object> caffeine) {
 		var caffeineCacheManager = new CaffeineCacheManager();
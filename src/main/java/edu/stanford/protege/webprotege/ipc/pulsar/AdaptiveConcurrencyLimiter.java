@@ -0,0 +1,195 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import edu.stanford.protege.webprotege.ipc.CommandExecutionException;
+import io.netty.util.Timeout;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Limits the number of requests that a {@link PulsarCommandExecutor} has in flight.  The limit adapts to the
+ * observed round trip times of requests, using a gradient algorithm: the limit is multiplied by the ratio of the
+ * long term average round trip time to the most recent round trip time (clamped to [0.5, 1]) and a small headroom,
+ * the square root of the limit, is added.  When the downstream service slows down the limit falls, and when it
+ * speeds up the limit grows.  Requests that time out, or are rejected as overloaded, reduce the limit
+ * multiplicatively.
+ * <p>
+ * When the limit has been reached, requests wait in a bounded queue for a bounded amount of time.  Requests that
+ * cannot be queued, or that wait too long, fail with a {@link CommandExecutionException} that has a status of
+ * {@link HttpStatus#SERVICE_UNAVAILABLE}.  A queue size of zero means that requests fail fast.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double MIN_GRADIENT = 0.5;
+
+    private static final double SMOOTHING = 0.2;
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private static final int LONG_RTT_WINDOW = 600;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final int maxQueueSize;
+
+    private final Duration maxQueueWait;
+
+    private final CommandTimeoutTimer timer;
+
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+
+    private double limit;
+
+    private double longRttNanos = 0;
+
+    private int inFlight = 0;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit,
+                                      int minLimit,
+                                      int maxLimit,
+                                      int maxQueueSize,
+                                      Duration maxQueueWait,
+                                      CommandTimeoutTimer timer) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueueSize = maxQueueSize;
+        this.maxQueueWait = maxQueueWait;
+        this.timer = timer;
+    }
+
+    /**
+     * Acquires a permit to send a request.  The returned future completes when a permit is available, or completes
+     * exceptionally with a {@link CommandExecutionException} if a permit could not be acquired.
+     */
+    public CompletableFuture<Permit> acquire() {
+        synchronized (this) {
+            if (inFlight < getLimit()) {
+                inFlight++;
+                return CompletableFuture.completedFuture(new Permit(inFlight));
+            }
+            if (waiters.size() < maxQueueSize) {
+                var waiter = new Waiter(new CompletableFuture<>());
+                waiters.addLast(waiter);
+                waiter.timeout = timer.schedule(maxQueueWait, () -> expire(waiter));
+                return waiter.future;
+            }
+        }
+        return CompletableFuture.failedFuture(new CommandExecutionException(HttpStatus.SERVICE_UNAVAILABLE));
+    }
+
+    /**
+     * Gets the current limit on the number of requests in flight
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Gets the number of requests that are in flight
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Gets the number of requests that are waiting for a permit
+     */
+    public synchronized int getQueued() {
+        return waiters.size();
+    }
+
+    private void expire(Waiter waiter) {
+        synchronized (this) {
+            if (!waiters.remove(waiter)) {
+                return;
+            }
+        }
+        waiter.future.completeExceptionally(new CommandExecutionException(HttpStatus.SERVICE_UNAVAILABLE));
+    }
+
+    private void release(Permit permit, long rttNanos, boolean dropped) {
+        List<Waiter> granted = new ArrayList<>();
+        synchronized (this) {
+            inFlight--;
+            if (dropped) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            }
+            else {
+                updateLimit(rttNanos, permit.inFlightAtAcquisition());
+            }
+            while (!waiters.isEmpty() && inFlight < getLimit()) {
+                var waiter = waiters.removeFirst();
+                inFlight++;
+                waiter.permit = new Permit(inFlight);
+                granted.add(waiter);
+            }
+        }
+        // Complete outside of the lock because completion runs the dependent stages
+        granted.forEach(waiter -> {
+            waiter.timeout.cancel();
+            waiter.future.complete(waiter.permit);
+        });
+    }
+
+    private void updateLimit(long rttNanos, int inFlightAtAcquisition) {
+        if (rttNanos <= 0) {
+            return;
+        }
+        var alpha = 2.0 / (LONG_RTT_WINDOW + 1);
+        longRttNanos = longRttNanos == 0 ? rttNanos : longRttNanos * (1 - alpha) + rttNanos * alpha;
+        var gradient = Math.max(MIN_GRADIENT, Math.min(1.0, longRttNanos / rttNanos));
+        var newLimit = limit * gradient + Math.sqrt(limit);
+        // Don't grow the limit if we are not using it
+        if (newLimit > limit && inFlightAtAcquisition < limit / 2) {
+            return;
+        }
+        limit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, limit));
+    }
+
+    private static class Waiter {
+
+        private final CompletableFuture<Permit> future;
+
+        private Timeout timeout;
+
+        private Permit permit;
+
+        private Waiter(CompletableFuture<Permit> future) {
+            this.future = future;
+        }
+    }
+
+    /**
+     * A permit to send one request.  Permits must be released exactly once, when the request completes.
+     */
+    public class Permit {
+
+        private final int inFlightAtAcquisition;
+
+        private Permit(int inFlightAtAcquisition) {
+            this.inFlightAtAcquisition = inFlightAtAcquisition;
+        }
+
+        private int inFlightAtAcquisition() {
+            return inFlightAtAcquisition;
+        }
+
+        /**
+         * Releases this permit
+         * @param rttNanos The round trip time of the request
+         * @param dropped true if the request timed out or was rejected because the handler was overloaded
+         */
+        public void release(long rttNanos, boolean dropped) {
+            AdaptiveConcurrencyLimiter.this.release(this, rttNanos, dropped);
+        }
+    }
+}
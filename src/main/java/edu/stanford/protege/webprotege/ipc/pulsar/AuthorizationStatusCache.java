@@ -0,0 +1,129 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import edu.stanford.protege.webprotege.authorization.GetAuthorizedActionsRequest;
+import edu.stanford.protege.webprotege.authorization.GetAuthorizedActionsResponse;
+import edu.stanford.protege.webprotege.authorization.Resource;
+import edu.stanford.protege.webprotege.authorization.Subject;
+import edu.stanford.protege.webprotege.ipc.CommandExecutor;
+import edu.stanford.protege.webprotege.ipc.ExecutionContext;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache of authorization decisions that is shared by all {@link PulsarCommandHandlerWrapper}s in a process.
+ * A decision is the set of actions that a subject may perform on a resource, so one cached decision serves every
+ * handler that targets the resource, whatever capabilities the handler requires.  Decisions are keyed by subject
+ * and resource and expire after a short time to live, which bounds how long a change to a user's permissions can go
+ * unnoticed.  Failed calls are not cached.
+ * <p>
+ * Concurrent checks of the same decision share a single call to the authorization service whether or not caching is
+ * enabled.  A burst of requests from one user to one project, therefore, makes one call to the authorization service
+ * rather than one call per request.
+ * <p>
+ * Decisions can also be invalidated explicitly, for example, when an event that signals a change to permissions is
+ * received (see {@link AuthorizationStatusCacheInvalidator}).
+ */
+public class AuthorizationStatusCache {
+
+    private final boolean enabled;
+
+    private final AsyncCache<GetAuthorizedActionsRequest, GetAuthorizedActionsResponse> cache;
+
+    private final Map<GetAuthorizedActionsRequest, CompletableFuture<GetAuthorizedActionsResponse>> inFlightRequests = new ConcurrentHashMap<>();
+
+    public AuthorizationStatusCache(boolean enabled, Duration timeToLive, long maximumSize) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                             .expireAfterWrite(timeToLive)
+                             .maximumSize(maximumSize)
+                             .recordStats()
+                             .buildAsync();
+    }
+
+    /**
+     * Gets the authorized actions for a request from the cache, or from the specified executor if there is no
+     * cached decision, or if the cache is not enabled.  If the cache is not enabled, and a call for the same
+     * decision is in flight, then the call in flight is shared.
+     * @param request The request for the authorized actions
+     * @param executionContext The execution context for calls to the authorization service
+     * @param executor The executor that calls the authorization service
+     * @return A future of the authorized actions
+     */
+    public CompletableFuture<GetAuthorizedActionsResponse> get(GetAuthorizedActionsRequest request,
+                                                               ExecutionContext executionContext,
+                                                               CommandExecutor<GetAuthorizedActionsRequest, GetAuthorizedActionsResponse> executor) {
+        if (!enabled) {
+            return getInFlight(request, executionContext, executor);
+        }
+        return cache.get(request, (key, cacheExecutor) -> executor.execute(key, executionContext));
+    }
+
+    private CompletableFuture<GetAuthorizedActionsResponse> getInFlight(GetAuthorizedActionsRequest request,
+                                                                        ExecutionContext executionContext,
+                                                                        CommandExecutor<GetAuthorizedActionsRequest, GetAuthorizedActionsResponse> executor) {
+        var inFlightRequest = new CompletableFuture<GetAuthorizedActionsResponse>();
+        var existingInFlightRequest = inFlightRequests.putIfAbsent(request, inFlightRequest);
+        if (existingInFlightRequest != null) {
+            return existingInFlightRequest.thenApply(response -> response);
+        }
+        CompletableFuture<GetAuthorizedActionsResponse> sent;
+        try {
+            sent = executor.execute(request, executionContext);
+        } catch (RuntimeException e) {
+            inFlightRequests.remove(request, inFlightRequest);
+            inFlightRequest.completeExceptionally(e);
+            throw e;
+        }
+        sent.whenComplete((response, error) -> {
+            inFlightRequests.remove(request, inFlightRequest);
+            if (error != null) {
+                inFlightRequest.completeExceptionally(error);
+            }
+            else {
+                inFlightRequest.complete(response);
+            }
+        });
+        return inFlightRequest.thenApply(response -> response);
+    }
+
+    /**
+     * Invalidates all cached decisions
+     */
+    public void invalidateAll() {
+        cache.synchronous().invalidateAll();
+    }
+
+    /**
+     * Invalidates the cached decisions for a subject
+     */
+    public void invalidate(Subject subject) {
+        cache.asMap().keySet().removeIf(key -> key.subject().equals(subject));
+    }
+
+    /**
+     * Invalidates the cached decisions for a resource
+     */
+    public void invalidate(Resource resource) {
+        cache.asMap().keySet().removeIf(key -> key.resource().equals(resource));
+    }
+
+    /**
+     * Gets the hit/miss statistics for the cache
+     */
+    public CacheStats getStats() {
+        return cache.synchronous().stats();
+    }
+
+    /**
+     * Gets the underlying cache, so that its statistics can be registered as meters (see {@link CommandMetrics})
+     */
+    AsyncCache<?, ?> getCache() {
+        return cache;
+    }
+}
@@ -0,0 +1,91 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import edu.stanford.protege.webprotege.authorization.ProjectResource;
+import edu.stanford.protege.webprotege.common.ProjectId;
+import edu.stanford.protege.webprotege.ipc.Headers;
+import org.apache.pulsar.client.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Invalidates cached authorization decisions when events that signal a change to permissions are received.  If such
+ * an event belongs to a project then the decisions for the project are invalidated, otherwise all decisions are
+ * invalidated.
+ * <p>
+ * Every process has its own cache, so every process must see every such event.  The invalidator therefore uses its
+ * own non-durable, exclusive subscription to each event channel, rather than a shared subscription.
+ */
+public class AuthorizationStatusCacheInvalidator {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthorizationStatusCacheInvalidator.class);
+
+    private final String applicationName;
+
+    private final String tenant;
+
+    private final PulsarClient pulsarClient;
+
+    private final AuthorizationStatusCache authorizationStatusCache;
+
+    private final Set<String> eventChannels;
+
+    private final List<Consumer<byte[]>> consumers = new ArrayList<>();
+
+    public AuthorizationStatusCacheInvalidator(String applicationName,
+                                               String tenant,
+                                               PulsarClient pulsarClient,
+                                               AuthorizationStatusCache authorizationStatusCache,
+                                               Set<String> eventChannels) {
+        this.applicationName = applicationName;
+        this.tenant = tenant;
+        this.pulsarClient = pulsarClient;
+        this.authorizationStatusCache = authorizationStatusCache;
+        this.eventChannels = eventChannels;
+    }
+
+    @PostConstruct
+    public void subscribe() {
+        eventChannels.forEach(eventChannel -> {
+            try {
+                var topicUrl = tenant + "/" + PulsarNamespaces.EVENTS + "/" + eventChannel;
+                logger.info("Invalidating cached authorization decisions on events from {}", topicUrl);
+                consumers.add(pulsarClient.newConsumer()
+                                          .topic(topicUrl)
+                                          .subscriptionName(applicationName + "--authorization-cache--" + UUID.randomUUID())
+                                          .subscriptionType(SubscriptionType.Exclusive)
+                                          .subscriptionMode(SubscriptionMode.NonDurable)
+                                          .subscriptionInitialPosition(SubscriptionInitialPosition.Latest)
+                                          .messageListener(this::handleEventMessage)
+                                          .subscribe());
+            } catch (PulsarClientException e) {
+                logger.error("Could not subscribe to events from {}", eventChannel, e);
+            }
+        });
+    }
+
+    private void handleEventMessage(Consumer<byte[]> consumer, Message<byte[]> message) {
+        var projectId = message.getProperty(Headers.PROJECT_ID);
+        if (projectId != null) {
+            logger.debug("Invalidating cached authorization decisions for project {}", projectId);
+            authorizationStatusCache.invalidate(ProjectResource.forProject(ProjectId.valueOf(projectId)));
+        }
+        else {
+            logger.debug("Invalidating all cached authorization decisions");
+            authorizationStatusCache.invalidateAll();
+        }
+        consumer.acknowledgeAsync(message);
+    }
+
+    @PreDestroy
+    public void close() {
+        consumers.forEach(Consumer::closeAsync);
+        consumers.clear();
+    }
+}
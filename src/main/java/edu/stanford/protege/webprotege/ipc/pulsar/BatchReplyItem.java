@@ -0,0 +1,31 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.http.HttpStatus;
+
+import javax.annotation.Nullable;
+
+/**
+ * The outcome of one request in a batch.  A batch reply message contains a list of these items, one for each request,
+ * in the same order as the requests.  Each item holds either the serialized response or the status code of the error
+ * that occurred when handling the request.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+record BatchReplyItem(@JsonProperty("response") @Nullable JsonNode response,
+                      @JsonProperty("statusCode") @Nullable Integer statusCode) {
+
+    @JsonCreator
+    BatchReplyItem {
+    }
+
+    public static BatchReplyItem success(JsonNode response) {
+        return new BatchReplyItem(response, null);
+    }
+
+    public static BatchReplyItem error(HttpStatus status) {
+        return new BatchReplyItem(null, status.value());
+    }
+}
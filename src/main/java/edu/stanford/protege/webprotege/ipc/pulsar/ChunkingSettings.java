@@ -0,0 +1,47 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import org.apache.pulsar.client.api.ConsumerBuilder;
+import org.apache.pulsar.client.api.ProducerBuilder;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings for sending requests and replies that are larger than the maximum message size of the broker.  If
+ * chunking is enabled then request and reply producers split large messages into chunks, which consumers reassemble.
+ * Pulsar does not allow chunking and batching on the same producer, so batching is turned off for these producers,
+ * including the batching of replies by the {@link PulsarReplySender}.
+ * <p>
+ * Consumers hold at most {@link #maxPendingChunkedMessages()} partially received messages in memory.  When this
+ * limit is reached the oldest partially received message is dropped, and partially received messages are also
+ * dropped if their remaining chunks do not arrive within {@link #incompleteChunkedMessageTimeout()}.  The callers
+ * of dropped requests or replies time out.
+ * <p>
+ * Pulsar only reassembles chunked messages for Exclusive and Failover subscriptions, so chunking cannot be used
+ * with Key_Shared command handler subscriptions.  A {@link PulsarCommandHandlerWrapper} for a Key_Shared
+ * subscription fails to start if chunking is enabled.
+ * @param enabled Whether producers split large messages into chunks
+ * @param maxPendingChunkedMessages The maximum number of partially received messages that a consumer holds
+ * @param incompleteChunkedMessageTimeout The amount of time after which a partially received message is dropped
+ */
+public record ChunkingSettings(boolean enabled, int maxPendingChunkedMessages, Duration incompleteChunkedMessageTimeout) {
+
+    /**
+     * Configures a producer of requests or replies
+     */
+    public void configure(ProducerBuilder<byte[]> producerBuilder) {
+        if (enabled) {
+            producerBuilder.enableBatching(false)
+                           .enableChunking(true);
+        }
+    }
+
+    /**
+     * Configures a consumer of requests or replies
+     */
+    public void configure(ConsumerBuilder<byte[]> consumerBuilder) {
+        consumerBuilder.maxPendingChunkedMessage(maxPendingChunkedMessages)
+                       .expireTimeOfIncompleteChunkedMessage(incompleteChunkedMessageTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                       .autoAckOldestChunkedMessageOnQueueFull(true);
+    }
+}
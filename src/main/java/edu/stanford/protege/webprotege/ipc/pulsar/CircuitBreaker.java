@@ -0,0 +1,187 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+
+/**
+ * A circuit breaker for the requests that are sent on one channel.  The breaker records the outcomes of the most
+ * recent requests in a fixed size window.  When the proportion of failures in the window reaches a threshold the
+ * breaker opens and requests are rejected without being sent.  After a while the breaker becomes half-open and lets a
+ * small number of probe requests through.  If the probes succeed the breaker closes, otherwise it opens again.
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String channel;
+
+    private final int minimumCalls;
+
+    private final double failureRateThreshold;
+
+    private final long openDurationNanos;
+
+    private final int halfOpenProbes;
+
+    private final boolean[] window;
+
+    private int windowCount = 0;
+
+    private int windowIndex = 0;
+
+    private int windowFailures = 0;
+
+    private State state = State.CLOSED;
+
+    private long openedAt = 0;
+
+    private int halfOpenInFlight = 0;
+
+    private int halfOpenSuccesses = 0;
+
+    /**
+     * Each state transition starts a new generation.  Outcomes of requests that were permitted in an earlier
+     * generation are ignored.
+     */
+    private long generation = 0;
+
+    /**
+     * Creates a circuit breaker
+     * @param channel The channel that the breaker is for.  This is used for logging.
+     * @param windowSize The number of recent outcomes that are considered
+     * @param minimumCalls The minimum number of outcomes in the window before the breaker can open
+     * @param failureRateThreshold The proportion of failures, between 0 and 1, at which the breaker opens
+     * @param openDuration The amount of time that the breaker stays open before it lets probe requests through
+     * @param halfOpenProbes The number of probe requests that must succeed for the breaker to close
+     */
+    public CircuitBreaker(String channel,
+                          int windowSize,
+                          int minimumCalls,
+                          double failureRateThreshold,
+                          Duration openDuration,
+                          int halfOpenProbes) {
+        this.channel = channel;
+        this.window = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationNanos = openDuration.toNanos();
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    /**
+     * Asks for permission to send a request.
+     * @return A permission, or null if the breaker is open and the request should be rejected
+     */
+    @Nullable
+    public synchronized Permission tryAcquirePermission() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openDurationNanos) {
+                return null;
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenInFlight >= halfOpenProbes) {
+                return null;
+            }
+            halfOpenInFlight++;
+        }
+        return new Permission(generation);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private synchronized void onResult(Permission permission, boolean failure) {
+        if (permission.generation() != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            halfOpenInFlight--;
+            if (failure) {
+                transitionTo(State.OPEN);
+            }
+            else if (++halfOpenSuccesses >= halfOpenProbes) {
+                transitionTo(State.CLOSED);
+            }
+            return;
+        }
+        if (windowCount == window.length && window[windowIndex]) {
+            windowFailures--;
+        }
+        window[windowIndex] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowIndex = (windowIndex + 1) % window.length;
+        windowCount = Math.min(windowCount + 1, window.length);
+        if (windowCount >= minimumCalls && windowFailures >= failureRateThreshold * windowCount) {
+            transitionTo(State.OPEN);
+        }
+    }
+
+    private synchronized void onIgnored(Permission permission) {
+        if (permission.generation() == generation && state == State.HALF_OPEN) {
+            halfOpenInFlight--;
+        }
+    }
+
+    private void transitionTo(State newState) {
+        if (newState == State.OPEN) {
+            logger.warn("Opening circuit breaker for channel {}.  Requests on this channel will be rejected.", channel);
+            openedAt = System.nanoTime();
+        }
+        else {
+            logger.info("Circuit breaker for channel {} is now {}", channel, newState);
+        }
+        state = newState;
+        generation++;
+        halfOpenInFlight = 0;
+        halfOpenSuccesses = 0;
+        windowCount = 0;
+        windowIndex = 0;
+        windowFailures = 0;
+    }
+
+    /**
+     * Permission to send one request.  Exactly one of the methods on a permission must be called when the request
+     * completes.
+     */
+    public class Permission {
+
+        private final long generation;
+
+        private Permission(long generation) {
+            this.generation = generation;
+        }
+
+        private long generation() {
+            return generation;
+        }
+
+        public void onSuccess() {
+            onResult(this, false);
+        }
+
+        public void onFailure() {
+            onResult(this, true);
+        }
+
+        /**
+         * Called if the request was not sent, for example, because it was rejected by a concurrency limiter
+         */
+        public void onIgnored() {
+            CircuitBreaker.this.onIgnored(this);
+        }
+    }
+}
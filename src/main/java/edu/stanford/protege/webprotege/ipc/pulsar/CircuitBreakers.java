@@ -0,0 +1,65 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the {@link CircuitBreaker}s for the channels that requests are sent on.  There is one breaker per channel,
+ * which is shared by all {@link PulsarCommandExecutor}s that send requests on the channel.
+ */
+public class CircuitBreakers {
+
+    private final boolean enabled;
+
+    private final int windowSize;
+
+    private final int minimumCalls;
+
+    private final double failureRateThreshold;
+
+    private final Duration openDuration;
+
+    private final int halfOpenProbes;
+
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    public CircuitBreakers(boolean enabled,
+                           int windowSize,
+                           int minimumCalls,
+                           double failureRateThreshold,
+                           Duration openDuration,
+                           int halfOpenProbes) {
+        this.enabled = enabled;
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDuration = openDuration;
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    /**
+     * Gets the circuit breaker for a channel
+     * @param channel The channel
+     * @return The circuit breaker, which is empty if circuit breakers are not enabled
+     */
+    public Optional<CircuitBreaker> get(String channel) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        return Optional.of(circuitBreakers.computeIfAbsent(channel, c -> new CircuitBreaker(c,
+                                                                                           windowSize,
+                                                                                           minimumCalls,
+                                                                                           failureRateThreshold,
+                                                                                           openDuration,
+                                                                                           halfOpenProbes)));
+    }
+
+    /**
+     * Gets the circuit breakers that have been created so far, keyed by channel
+     */
+    public Map<String, CircuitBreaker> getAll() {
+        return Map.copyOf(circuitBreakers);
+    }
+}
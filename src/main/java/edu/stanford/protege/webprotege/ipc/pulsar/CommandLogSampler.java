@@ -0,0 +1,85 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import org.slf4j.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Samples the per-request log messages of the command pipeline, so that logging does not cost more than the work
+ * that is being logged.  Each channel has a sample rate, between 0 (log nothing) and 1 (log everything), and
+ * messages that are not logged because of sampling are counted.  Log messages that are guarded by the sampler
+ * should not contain request or response payloads.  Payloads are only logged at TRACE level.
+ * <p>
+ * Usage:
+ * <pre>
+ *     if (logSampler.shouldLog(logger, channel)) {
+ *         logger.info("...", ...);
+ *     }
+ * </pre>
+ */
+public class CommandLogSampler {
+
+    private final double defaultSampleRate;
+
+    private final Map<String, Double> channelSampleRates;
+
+    private final LongAdder suppressedCount = new LongAdder();
+
+    /**
+     * Creates a sampler
+     * @param defaultSampleRate The sample rate for channels that do not have their own sample rate
+     * @param channelSampleRates The sample rates for specific channels
+     */
+    public CommandLogSampler(double defaultSampleRate, Map<String, Double> channelSampleRates) {
+        this.defaultSampleRate = defaultSampleRate;
+        this.channelSampleRates = Map.copyOf(channelSampleRates);
+    }
+
+    /**
+     * Parses sample rates for specific channels
+     * @param sampleRates A comma separated list of channel=rate pairs, for example,
+     *                    {@code webprotege.entities.GetEntityHierarchy=0.01,webprotege.projects.CreateProject=1}
+     */
+    public static Map<String, Double> parseChannelSampleRates(String sampleRates) {
+        var result = new HashMap<String, Double>();
+        for (var entry : sampleRates.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            var separator = entry.lastIndexOf('=');
+            if (separator == -1) {
+                throw new IllegalArgumentException("Malformed channel sample rate: " + entry);
+            }
+            result.put(entry.substring(0, separator).trim(), Double.parseDouble(entry.substring(separator + 1).trim()));
+        }
+        return result;
+    }
+
+    /**
+     * Determines whether a per-request message for a channel should be logged at INFO level
+     * @param logger The logger that the message would be logged to
+     * @param channel The channel of the request
+     * @return true if INFO is enabled for the logger and the message is sampled, otherwise false
+     */
+    public boolean shouldLog(Logger logger, String channel) {
+        if (!logger.isInfoEnabled()) {
+            return false;
+        }
+        var sampleRate = channelSampleRates.getOrDefault(channel, defaultSampleRate);
+        if (sampleRate >= 1 || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate)) {
+            return true;
+        }
+        suppressedCount.increment();
+        return false;
+    }
+
+    /**
+     * Gets the number of messages that were not logged because of sampling
+     */
+    public long getSuppressedCount() {
+        return suppressedCount.sum();
+    }
+}
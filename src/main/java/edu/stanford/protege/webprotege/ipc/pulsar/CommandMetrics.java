@@ -0,0 +1,167 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Registers the gauges and counters of the command pipeline with the {@link MeterRegistry} of the application.  These
+ * complement the timers that are recorded from {@link CommandObservations}, and show how much work is queued rather
+ * than how long it takes.  Meters of command handlers have a {@link CommandObservations#CHANNEL} tag.
+ * <p>
+ * The caches of the command pipeline are registered as Caffeine caches, so their hit, miss, load and eviction
+ * statistics are recorded by the standard {@code cache.*} meters, with a {@code cache} tag of
+ * {@link #RESPONSE_CACHE} or {@link #AUTHORIZATION_CACHE}.
+ */
+public class CommandMetrics {
+
+    /**
+     * The number of requests sent by this process that are waiting for a reply
+     */
+    public static final String PENDING_REPLIES = "webprotege.command.replies.pending";
+
+    /**
+     * The number of replies that have been sent by this process.  Has a {@link CommandObservations#STATUS} tag,
+     * which is {@link CommandObservations#STATUS_SENT} or {@link CommandObservations#STATUS_FAILED}.
+     */
+    public static final String REPLIES = "webprotege.command.replies";
+
+    /**
+     * The number of requests that a command handler has received but has not yet started to handle.  See
+     * {@link PulsarCommandHandlerWrapper#getBacklog()}.
+     */
+    public static final String HANDLER_BACKLOG = "webprotege.command.handler.backlog";
+
+    /**
+     * The number of requests that a command handler is handling
+     */
+    public static final String HANDLER_IN_FLIGHT = "webprotege.command.handler.inflight";
+
+    /**
+     * The number of requests that a command handler has dropped, without handling them, because their deadlines had
+     * passed
+     */
+    public static final String HANDLER_EXPIRED = "webprotege.command.handler.expired";
+
+    /**
+     * The number of per-request log messages that were not logged because of sampling.  See
+     * {@link CommandLogSampler}.
+     */
+    public static final String LOG_MESSAGES_SUPPRESSED = "webprotege.command.log.suppressed";
+
+    /**
+     * The concurrency limit of a command executor.  See {@link AdaptiveConcurrencyLimiter}.
+     */
+    public static final String EXECUTOR_LIMIT = "webprotege.command.executor.limit";
+
+    /**
+     * The number of requests that a command executor has in flight
+     */
+    public static final String EXECUTOR_IN_FLIGHT = "webprotege.command.executor.inflight";
+
+    /**
+     * The number of requests that are waiting for a command executor to have fewer requests in flight than its limit
+     */
+    public static final String EXECUTOR_QUEUED = "webprotege.command.executor.queued";
+
+    /**
+     * The name of the {@link CommandResponseCache}
+     */
+    public static final String RESPONSE_CACHE = "webprotege.command.responses";
+
+    /**
+     * The name of the {@link AuthorizationStatusCache}
+     */
+    public static final String AUTHORIZATION_CACHE = "webprotege.command.authorization";
+
+    private final MeterRegistry meterRegistry;
+
+    public CommandMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Registers the meters of the reply inbox
+     */
+    public void bindReplyInbox(PulsarReplyInbox replyInbox) {
+        Gauge.builder(PENDING_REPLIES, replyInbox, PulsarReplyInbox::getPendingReplyCount)
+             .description("Requests that are waiting for a reply")
+             .register(meterRegistry);
+    }
+
+    /**
+     * Registers the meters of the reply sender
+     */
+    public void bindReplySender(PulsarReplySender replySender) {
+        FunctionCounter.builder(REPLIES, replySender, PulsarReplySender::getSentReplyCount)
+                       .description("Replies that have been sent")
+                       .tag(CommandObservations.STATUS, CommandObservations.STATUS_SENT)
+                       .register(meterRegistry);
+        FunctionCounter.builder(REPLIES, replySender, PulsarReplySender::getFailedReplyCount)
+                       .description("Replies that have been sent")
+                       .tag(CommandObservations.STATUS, CommandObservations.STATUS_FAILED)
+                       .register(meterRegistry);
+    }
+
+    /**
+     * Registers the meters of the concurrency limiter of a command executor
+     * @param channel The channel that the executor sends requests on
+     * @param concurrencyLimiter The limiter
+     */
+    public void bindConcurrencyLimiter(String channel, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        Gauge.builder(EXECUTOR_LIMIT, concurrencyLimiter, AdaptiveConcurrencyLimiter::getLimit)
+             .description("The maximum number of requests that can be in flight")
+             .tag(CommandObservations.CHANNEL, channel)
+             .register(meterRegistry);
+        Gauge.builder(EXECUTOR_IN_FLIGHT, concurrencyLimiter, AdaptiveConcurrencyLimiter::getInFlight)
+             .description("Requests that have been sent and are waiting for a reply")
+             .tag(CommandObservations.CHANNEL, channel)
+             .register(meterRegistry);
+        Gauge.builder(EXECUTOR_QUEUED, concurrencyLimiter, AdaptiveConcurrencyLimiter::getQueued)
+             .description("Requests that are waiting to be sent because the limit has been reached")
+             .tag(CommandObservations.CHANNEL, channel)
+             .register(meterRegistry);
+    }
+
+    /**
+     * Registers the statistics of the response cache
+     */
+    public void bindResponseCache(CommandResponseCache responseCache) {
+        CaffeineCacheMetrics.monitor(meterRegistry, responseCache.getCache(), RESPONSE_CACHE);
+    }
+
+    /**
+     * Registers the statistics of the authorization cache
+     */
+    public void bindAuthorizationCache(AuthorizationStatusCache authorizationStatusCache) {
+        CaffeineCacheMetrics.monitor(meterRegistry, authorizationStatusCache.getCache(), AUTHORIZATION_CACHE);
+    }
+
+    /**
+     * Registers the meters of the log sampler
+     */
+    public void bindLogSampler(CommandLogSampler logSampler) {
+        FunctionCounter.builder(LOG_MESSAGES_SUPPRESSED, logSampler, CommandLogSampler::getSuppressedCount)
+                       .description("Per-request log messages that were not logged because of sampling")
+                       .register(meterRegistry);
+    }
+
+    /**
+     * Registers the meters of a command handler
+     */
+    public void bindHandler(PulsarCommandHandlerWrapper<?, ?> wrapper) {
+        Gauge.builder(HANDLER_BACKLOG, wrapper, PulsarCommandHandlerWrapper::getBacklog)
+             .description("Requests that have been received but have not yet started to be handled")
+             .tag(CommandObservations.CHANNEL, wrapper.getChannelName())
+             .register(meterRegistry);
+        Gauge.builder(HANDLER_IN_FLIGHT, wrapper, PulsarCommandHandlerWrapper::getInFlightRequestCount)
+             .description("Requests that are being handled")
+             .tag(CommandObservations.CHANNEL, wrapper.getChannelName())
+             .register(meterRegistry);
+        FunctionCounter.builder(HANDLER_EXPIRED, wrapper, PulsarCommandHandlerWrapper::getExpiredRequestCount)
+                       .description("Requests that have been dropped because their deadlines had passed")
+                       .tag(CommandObservations.CHANNEL, wrapper.getChannelName())
+                       .register(meterRegistry);
+    }
+}
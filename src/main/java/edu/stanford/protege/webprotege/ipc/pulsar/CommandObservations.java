@@ -0,0 +1,106 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import edu.stanford.protege.webprotege.ipc.CommandExecutionException;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The names and keys of the observations that are made of the command pipeline.  Observations are made using the
+ * {@link ObservationRegistry} of the application, if it has one.  With Spring Boot Actuator, each observation is
+ * recorded as a timer (percentile histograms can be turned on with the
+ * {@code management.metrics.distribution.percentiles-histogram} properties), and errors are counted.  All
+ * observations have a low cardinality {@link #CHANNEL} key.
+ */
+public final class CommandObservations {
+
+    /**
+     * The execution of a request by a {@link PulsarCommandExecutor}, from the call to
+     * {@link PulsarCommandExecutor#execute} until the response (or error) is received.  Has a {@link #STATUS} key.
+     */
+    public static final String EXECUTE = "webprotege.command.execute";
+
+    /**
+     * The handling of a request by a {@link PulsarCommandHandlerWrapper}, from the point at which the request has been
+     * parsed until the response (or error) is available.  Has a {@link #STATUS} key.
+     */
+    public static final String HANDLE = "webprotege.command.handle";
+
+    /**
+     * One stage of the handling of a request by a {@link PulsarCommandHandlerWrapper}.  Has a {@link #STAGE} key.
+     */
+    public static final String HANDLE_STAGE = "webprotege.command.handle.stage";
+
+    /**
+     * The sending of a reply, from the call to send it until it is acknowledged by the broker.  Has a
+     * {@link #STATUS} key, which is {@link #STATUS_SENT} or {@link #STATUS_FAILED}.
+     */
+    public static final String REPLY_SEND = "webprotege.command.reply.send";
+
+    public static final String CHANNEL = "channel";
+
+    public static final String STATUS = "status";
+
+    public static final String STAGE = "stage";
+
+    public static final String STAGE_PARSE = "parse";
+
+    public static final String STAGE_AUTHORIZATION = "authorization";
+
+    public static final String STAGE_HANDLER = "handler";
+
+    public static final String STAGE_SERIALIZE = "serialize";
+
+    public static final String STATUS_CANCELLED = "cancelled";
+
+    public static final String STATUS_SENT = "sent";
+
+    public static final String STATUS_FAILED = "failed";
+
+    private CommandObservations() {
+    }
+
+    /**
+     * Starts an observation of the specified stage of handling a request on a channel
+     */
+    public static Observation startStage(String stage, String channel, ObservationRegistry registry) {
+        return Observation.start(HANDLE_STAGE, registry)
+                          .lowCardinalityKeyValue(CHANNEL, channel)
+                          .lowCardinalityKeyValue(STAGE, stage);
+    }
+
+    /**
+     * Sets the {@link #STATUS} of an observation from the outcome of a request and stops the observation
+     * @param observation The observation
+     * @param error The error that the request failed with, or null if the request succeeded
+     */
+    public static void stop(Observation observation, @Nullable Throwable error) {
+        observation.lowCardinalityKeyValue(STATUS, getStatus(error));
+        if (error != null && !(error instanceof CancellationException)) {
+            observation.error(error);
+        }
+        observation.stop();
+    }
+
+    /**
+     * Gets the status of a request, which is the HTTP status code of the response, or {@link #STATUS_CANCELLED}
+     */
+    public static String getStatus(@Nullable Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error == null) {
+            return "200";
+        }
+        if (error instanceof CancellationException) {
+            return STATUS_CANCELLED;
+        }
+        if (error instanceof CommandExecutionException ex) {
+            return Integer.toString(ex.getStatusCode());
+        }
+        return "500";
+    }
+}
@@ -0,0 +1,202 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import edu.stanford.protege.webprotege.ipc.CacheableRequest;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * A cache of responses to {@link CacheableRequest}s that is shared by all {@link PulsarCommandExecutor}s in a
+ * process.  The cache is bounded by the total serialized size of the cached responses and each response expires
+ * after the time to live that is specified by its request.  Entries that are read when they are close to expiring
+ * are refreshed in the background, so that frequently read responses do not periodically fall out of the cache.
+ * <p>
+ * Concurrent misses for the same key share a single execution of the request.  The cache is private to the command
+ * path and is not registered with Spring's {@link org.springframework.cache.CacheManager}, because it only holds
+ * responses that it has weighed itself.
+ */
+public class CommandResponseCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommandResponseCache.class);
+
+    private static final int UNKNOWN_SIZE = -1;
+
+    private final ObjectMapper objectMapper;
+
+    private final double refreshAheadRatio;
+
+    private final AsyncCache<CacheKey, CachedResponse> cache;
+
+    private final Set<CacheKey> refreshingKeys = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a cache
+     * @param objectMapper The object mapper that is used to compute the size of responses whose serialized size is
+     *                     not known
+     * @param maximumWeightBytes The maximum total size, in bytes, of the serialized responses in the cache
+     * @param refreshAheadRatio The fraction of an entry's time to live after which a read of the entry causes it to be
+     *                          refreshed.  Values of 1 or more disable refresh-ahead.
+     */
+    public CommandResponseCache(ObjectMapper objectMapper, long maximumWeightBytes, double refreshAheadRatio) {
+        this.objectMapper = objectMapper;
+        this.refreshAheadRatio = refreshAheadRatio;
+        this.cache = Caffeine.newBuilder()
+                             .maximumWeight(maximumWeightBytes)
+                             .weigher((CacheKey key, CachedResponse value) -> value.weight())
+                             .expireAfter(new CachedResponseExpiry())
+                             .recordStats()
+                             .buildAsync();
+    }
+
+    /**
+     * Gets the response for a request from the cache, or executes the request if there is no cached response.  If
+     * the request is already being executed for another caller then the caller shares that execution.
+     * @param key The key for the request
+     * @param timeToLive The time to live for the response
+     * @param responseClass The class of the response
+     * @param loader Executes the request
+     * @return A future of the response.  Cancelling the future does not cancel an execution that is shared with other
+     * callers.
+     */
+    public <R> CompletableFuture<R> get(CacheKey key,
+                                        Duration timeToLive,
+                                        Class<R> responseClass,
+                                        ResponseLoader<R> loader) {
+        var loaded = new AtomicBoolean();
+        var cachedResponse = cache.get(key, (k, executor) -> {
+            loaded.set(true);
+            return load(loader, timeToLive);
+        });
+        if (cachedResponse.isDone() && !cachedResponse.isCompletedExceptionally()) {
+            var response = cachedResponse.join();
+            if (!loaded.get() && isDueForRefresh(response)) {
+                refresh(key, timeToLive, loader);
+            }
+            return CompletableFuture.completedFuture(responseClass.cast(response.response()));
+        }
+        return cachedResponse.thenApply(response -> responseClass.cast(response.response()));
+    }
+
+    /**
+     * Gets the hit/miss statistics for the cache.  A request that shares an execution that is in progress counts as
+     * a hit.
+     */
+    public CacheStats getStats() {
+        return cache.synchronous().stats();
+    }
+
+    /**
+     * Gets the underlying cache, so that its statistics can be registered as meters (see {@link CommandMetrics})
+     */
+    AsyncCache<?, ?> getCache() {
+        return cache;
+    }
+
+    private boolean isDueForRefresh(CachedResponse cachedResponse) {
+        var age = System.nanoTime() - cachedResponse.writeTime();
+        return age > cachedResponse.timeToLive().toNanos() * refreshAheadRatio;
+    }
+
+    private <R> void refresh(CacheKey key, Duration timeToLive, ResponseLoader<R> loader) {
+        if (!refreshingKeys.add(key)) {
+            return;
+        }
+        logger.debug("Refreshing cached response for request on channel {}", key.channel());
+        CompletableFuture<CachedResponse> refreshed;
+        try {
+            refreshed = load(loader, timeToLive);
+        } catch (RuntimeException e) {
+            // The cached response is still valid, so the caller gets it regardless
+            refreshingKeys.remove(key);
+            logger.warn("Could not refresh cached response for request on channel {}", key.channel(), e);
+            return;
+        }
+        refreshed.whenComplete((response, error) -> {
+            refreshingKeys.remove(key);
+            if (error == null) {
+                cache.put(key, CompletableFuture.completedFuture(response));
+            }
+        });
+    }
+
+    private <R> CompletableFuture<CachedResponse> load(ResponseLoader<R> loader, Duration timeToLive) {
+        var replySize = new AtomicInteger(UNKNOWN_SIZE);
+        return loader.load(replySize::set)
+                     .thenApply(response -> new CachedResponse(response,
+                                                               timeToLive,
+                                                               getWeight(response, replySize.get()),
+                                                               System.nanoTime()));
+    }
+
+    private int getWeight(Object response, int replySize) {
+        if (replySize != UNKNOWN_SIZE) {
+            return replySize;
+        }
+        // The response did not arrive as a reply message (for example, it came from a handler in this process)
+        try {
+            return objectMapper.writeValueAsBytes(response).length;
+        } catch (JsonProcessingException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Executes a request whose response is to be cached
+     */
+    public interface ResponseLoader<R> {
+
+        /**
+         * Executes the request
+         * @param replySizeRecorder Receives the size, in bytes, of the serialized response, if it is known.  If it is
+         *                          not called then the response is serialized to find its size.
+         * @return A future of the response
+         */
+        CompletableFuture<R> load(IntConsumer replySizeRecorder);
+    }
+
+    /**
+     * The key for a cached response
+     * @param channel The channel of the request
+     * @param userId The user that executed the request
+     * @param requestKey The key specified by the request.  See {@link CacheableRequest#getCacheKey()}.
+     */
+    public record CacheKey(String channel, String userId, Object requestKey) {
+
+    }
+
+    private record CachedResponse(Object response, Duration timeToLive, int weight, long writeTime) {
+
+    }
+
+    private static class CachedResponseExpiry implements Expiry<CacheKey, CachedResponse> {
+
+        @Override
+        public long expireAfterCreate(@NonNull CacheKey key, @NonNull CachedResponse value, long currentTime) {
+            return value.timeToLive().toNanos();
+        }
+
+        @Override
+        public long expireAfterUpdate(@NonNull CacheKey key, @NonNull CachedResponse value, long currentTime, long currentDuration) {
+            return value.timeToLive().toNanos();
+        }
+
+        @Override
+        public long expireAfterRead(@NonNull CacheKey key, @NonNull CachedResponse value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
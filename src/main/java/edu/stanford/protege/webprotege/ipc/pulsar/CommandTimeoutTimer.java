@@ -0,0 +1,41 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timer that is shared by all {@link PulsarCommandExecutor}s in a process and that is used to expire requests
+ * whose replies do not arrive in time.  The timer is backed by a hashed timer wheel, so scheduling and cancelling a
+ * timeout is O(1) and no task or thread is created per request.  Timeouts fire with a precision of one tick.
+ */
+public class CommandTimeoutTimer {
+
+    private final HashedWheelTimer timer;
+
+    public CommandTimeoutTimer(Duration tickDuration, int ticksPerWheel) {
+        this.timer = new HashedWheelTimer(r -> {
+            var thread = new Thread(r, "webprotege-command-timeout-timer");
+            thread.setDaemon(true);
+            return thread;
+        }, tickDuration.toMillis(), TimeUnit.MILLISECONDS, ticksPerWheel);
+    }
+
+    /**
+     * Schedules a task to be run after the specified delay.
+     * @param delay The delay
+     * @param task The task to run
+     * @return A {@link Timeout} that can be used to cancel the task
+     */
+    public Timeout schedule(Duration delay, Runnable task) {
+        return timer.newTimeout(t -> task.run(), delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        timer.stop();
+    }
+}
@@ -0,0 +1,91 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A cache of the replies that have recently been sent by the {@link PulsarCommandHandlerWrapper}s in a process, keyed
+ * by the correlation ids of the requests that they reply to.  If a request message is redelivered, for example,
+ * after a broker failover or after it was negatively acknowledged, then the cached reply is sent again instead of
+ * handling the request a second time.
+ * <p>
+ * The cache is bounded by the total size of the cached reply payloads, and replies expire after a time to live.  The
+ * cache is held in memory, so redeliveries to a different instance of a service, or to an instance that has
+ * restarted, are handled in full.
+ */
+public class CompletedReplyCache {
+
+    /**
+     * An estimate of the size of a cached reply, excluding its payload
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final boolean enabled;
+
+    private final Cache<String, CompletedReply> cache;
+
+    public CompletedReplyCache(boolean enabled, Duration timeToLive, long maximumBytes) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                             .expireAfterWrite(timeToLive)
+                             .maximumWeight(maximumBytes)
+                             .<String, CompletedReply>weigher((correlationId, reply) -> reply.getSizeInBytes())
+                             .recordStats()
+                             .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records a reply that has been sent.  This does nothing if the cache is not enabled.
+     * @param correlationId The correlation id of the request
+     * @param reply The reply
+     */
+    public void put(String correlationId, CompletedReply reply) {
+        if (enabled) {
+            cache.put(correlationId, reply);
+        }
+    }
+
+    /**
+     * Gets the reply that was sent to a request
+     * @param correlationId The correlation id of the request
+     * @param userId The user that sent the request.  Replies are only returned to the user that they were sent to.
+     * @return The reply, or empty if there is no cached reply for the request, or if the cache is not enabled
+     */
+    public Optional<CompletedReply> get(String correlationId, String userId) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(cache.getIfPresent(correlationId))
+                       .filter(reply -> reply.userId().equals(userId));
+    }
+
+    /**
+     * Gets the hit/miss statistics for the cache
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * A reply that has been sent
+     * @param userId The user that the reply was sent to
+     * @param properties The properties of the reply message, other than the correlation id and user id
+     * @param value The payload of the reply message, if any
+     */
+    public record CompletedReply(String userId, Map<String, String> properties, @Nullable byte[] value) {
+
+        private int getSizeInBytes() {
+            return ENTRY_OVERHEAD_BYTES + (value != null ? value.length : 0);
+        }
+    }
+}
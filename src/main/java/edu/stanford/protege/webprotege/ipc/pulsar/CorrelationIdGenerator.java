@@ -0,0 +1,58 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Generates correlation ids for requests.  A correlation id consists of a random prefix, which is chosen once when
+ * the generator is created, followed by a number that is drawn from one of several counters (stripes).  Each thread
+ * uses the stripe that its id maps to, and stripes are spaced so that no two share a cache line, so threads that
+ * generate ids at the same time do not contend for a single counter.  Stripe {@code i} of {@code n} only produces
+ * numbers {@code i}, {@code i + n}, {@code i + 2n} and so on, which makes the numbers from different stripes
+ * distinct.
+ * <p>
+ * Generating an id is therefore an uncontended atomic increment, rather than a draw from the shared
+ * {@link java.security.SecureRandom} that backs {@link UUID#randomUUID()}.  The random prefix makes ids from
+ * different processes distinct, which matters when replies are broadcast to all instances of a service.
+ */
+public class CorrelationIdGenerator {
+
+    /**
+     * The number of longs between adjacent stripes.  128 bytes keeps stripes apart even with adjacent line prefetch.
+     */
+    private static final int STRIPE_SPACING = 16;
+
+    private static final int MAX_STRIPES = 64;
+
+    private final String prefix;
+
+    private final int stripeMask;
+
+    private final AtomicLongArray counters;
+
+    public CorrelationIdGenerator() {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * Creates a generator
+     * @param minimumStripes The minimum number of stripes.  The number of stripes is the smallest power of two that
+     *                       is at least this number, up to a maximum of 64.
+     */
+    public CorrelationIdGenerator(int minimumStripes) {
+        var uuid = UUID.randomUUID();
+        this.prefix = Long.toUnsignedString(uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits(), 36) + "-";
+        var stripes = Integer.highestOneBit(Math.max(1, Math.min(minimumStripes, MAX_STRIPES)) * 2 - 1);
+        this.stripeMask = stripes - 1;
+        this.counters = new AtomicLongArray(stripes * STRIPE_SPACING);
+    }
+
+    /**
+     * Gets the next correlation id
+     */
+    public String next() {
+        var stripe = (int) Thread.currentThread().getId() & stripeMask;
+        var count = counters.getAndIncrement(stripe * STRIPE_SPACING);
+        return prefix + Long.toString(count * (stripeMask + 1) + stripe, 36);
+    }
+}
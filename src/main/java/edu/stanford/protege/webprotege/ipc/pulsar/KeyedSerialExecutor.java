@@ -0,0 +1,135 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Runs tasks one at a time per key.  A task is started when it is submitted if no other task for the same key is
+ * running, otherwise it is queued and started when the tasks for the key that were submitted before it have
+ * completed.  Tasks for different keys run independently of each other.
+ * <p>
+ * A task is asynchronous.  It is considered to be running until the future that it returns completes, so a task can
+ * hand its work over to another thread and the next task for the key will still wait for that work to finish.
+ * A task that does not have to wait is started on the thread that submits it.  A task that has to wait is started on
+ * the executor that is supplied when the {@code KeyedSerialExecutor} is created, and never on the thread that happens
+ * to complete the previous task, which may be a thread that must not block, such as a Pulsar I/O thread.
+ * <p>
+ * The number of tasks that may wait for each key is bounded.  A task that is submitted when the queue for its key is
+ * full is not accepted, and the caller is expected to reject the work that the task represents.
+ */
+public class KeyedSerialExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyedSerialExecutor.class);
+
+    /**
+     * The queues of tasks that are waiting to run.  A key is present if a task for the key is running.
+     */
+    private final Map<String, Deque<Supplier<? extends CompletableFuture<?>>>> queues = new HashMap<>();
+
+    private final Executor executor;
+
+    private final int maxQueuedTasksPerKey;
+
+    /**
+     * Creates a keyed serial executor
+     * @param executor The executor that starts tasks that had to wait for an earlier task with the same key
+     * @param maxQueuedTasksPerKey The maximum number of tasks that may wait for each key
+     */
+    public KeyedSerialExecutor(Executor executor, int maxQueuedTasksPerKey) {
+        this.executor = executor;
+        this.maxQueuedTasksPerKey = maxQueuedTasksPerKey;
+    }
+
+    /**
+     * Submits a task
+     * @param key The key.  Tasks with the same key are run in the order in which they are submitted.
+     * @param task The task.  The future that it returns should complete when the work of the task has finished.
+     * @return true if the task was accepted, or false if the queue for the key is full, in which case the task will
+     * not be run
+     */
+    public boolean execute(String key, Supplier<? extends CompletableFuture<?>> task) {
+        synchronized (this) {
+            var queue = queues.get(key);
+            if (queue != null) {
+                if (queue.size() >= maxQueuedTasksPerKey) {
+                    return false;
+                }
+                queue.addLast(task);
+                return true;
+            }
+            queues.put(key, new ArrayDeque<>());
+        }
+        runTasks(key, task);
+        return true;
+    }
+
+    /**
+     * Gets the number of keys that have a running task
+     */
+    public synchronized int getActiveKeyCount() {
+        return queues.size();
+    }
+
+    /**
+     * Gets the number of tasks that are waiting for an earlier task with the same key to complete
+     */
+    public synchronized int getQueuedTaskCount() {
+        return queues.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    private void runTasks(String key, Supplier<? extends CompletableFuture<?>> firstTask) {
+        // Tasks that complete immediately are run in a loop, rather than recursively, so that a long queue of
+        // such tasks cannot overflow the stack
+        var task = firstTask;
+        while (task != null) {
+            var completion = start(task);
+            if (!completion.isDone()) {
+                completion.whenComplete((result, error) -> startNextTask(key));
+                return;
+            }
+            task = pollNextTask(key);
+        }
+    }
+
+    private void startNextTask(String key) {
+        var next = pollNextTask(key);
+        if (next == null) {
+            return;
+        }
+        try {
+            executor.execute(() -> runTasks(key, next));
+        } catch (RuntimeException e) {
+            // The executor has been shut down.  The remaining tasks for the key are dropped.
+            logger.warn("Could not start task for key {}", key, e);
+            synchronized (this) {
+                queues.remove(key);
+            }
+        }
+    }
+
+    private static CompletableFuture<?> start(Supplier<? extends CompletableFuture<?>> task) {
+        try {
+            return task.get();
+        } catch (RuntimeException e) {
+            logger.error("Task threw an exception", e);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private synchronized Supplier<? extends CompletableFuture<?>> pollNextTask(String key) {
+        var queue = queues.get(key);
+        var next = queue.pollFirst();
+        if (next == null) {
+            queues.remove(key);
+        }
+        return next;
+    }
+}
@@ -0,0 +1,192 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether a command handler is overloaded.  A handler is overloaded if it has reached its limit on the number
+ * of requests in flight.  The limit starts at, and never exceeds, the configured maximum number of requests in flight.
+ * It adapts to the 99th percentile of the time taken to handle recent requests: while the percentile is above a
+ * threshold the limit is multiplied by {@link #BACKOFF_RATIO}, and while it is below the threshold a small headroom,
+ * the square root of the limit, is added back.  High latency therefore sheds a growing fraction of requests rather
+ * than all of them at once, in the same way as the {@link AdaptiveConcurrencyLimiter} of callers.  The limit never
+ * falls below one, so an idle handler always accepts a request, which refreshes the latency estimate and lets the
+ * handler recover.
+ * <p>
+ * The latency percentile is computed from the most recent requests that completed within a sliding time window, and
+ * is recomputed at most every {@link #PERCENTILE_REFRESH_INTERVAL_NANOS} nanoseconds.  The limit is adjusted at most
+ * once in the same interval, when a request completes.
+ */
+public class LoadShedder {
+
+    /**
+     * What to do with requests when the handler is overloaded
+     */
+    public enum Mode {
+
+        /**
+         * Reject requests with a {@link org.springframework.http.HttpStatus#SERVICE_UNAVAILABLE} error
+         */
+        REJECT,
+
+        /**
+         * Stop receiving requests until the handler is no longer overloaded
+         */
+        PAUSE
+    }
+
+    private static final int SAMPLE_COUNT = 1000;
+
+    private static final long PERCENTILE_REFRESH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private static final int MIN_LIMIT = 1;
+
+    private final Mode mode;
+
+    private final int maxInFlight;
+
+    private final long maxLatencyNanos;
+
+    private final long windowNanos;
+
+    private final long[] latencies = new long[SAMPLE_COUNT];
+
+    private final long[] completionTimes = new long[SAMPLE_COUNT];
+
+    private int sampleIndex = 0;
+
+    private int sampleCount = 0;
+
+    private int inFlight = 0;
+
+    private long latencyP99Nanos = 0;
+
+    private long latencyP99ComputedAt = 0;
+
+    private boolean latencyP99Computed = false;
+
+    private double limit;
+
+    private long limitUpdatedAt = 0;
+
+    private boolean limitUpdated = false;
+
+    private long shedCount = 0;
+
+    /**
+     * Creates a load shedder
+     * @param mode What to do with requests when the handler is overloaded
+     * @param maxInFlight The maximum number of requests that the handler may have in flight
+     * @param maxLatency The 99th percentile latency above which the handler is overloaded
+     * @param window The time window over which latencies are considered
+     */
+    public LoadShedder(Mode mode, int maxInFlight, Duration maxLatency, Duration window) {
+        this.mode = mode;
+        this.maxInFlight = maxInFlight;
+        this.limit = maxInFlight;
+        this.maxLatencyNanos = maxLatency.toNanos();
+        this.windowNanos = window.toNanos();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public synchronized boolean isOverloaded() {
+        return inFlight >= getLimit();
+    }
+
+    /**
+     * Gets the current limit on the number of requests in flight.  This is at most the configured maximum.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Records that a request has been shed
+     */
+    public synchronized void onShed() {
+        shedCount++;
+    }
+
+    /**
+     * Records that the handler has started to handle a request
+     */
+    public synchronized void onStart() {
+        inFlight++;
+    }
+
+    /**
+     * Records that the handler has finished handling a request
+     * @param latencyNanos The time taken to handle the request
+     */
+    public synchronized void onComplete(long latencyNanos) {
+        inFlight--;
+        latencies[sampleIndex] = latencyNanos;
+        completionTimes[sampleIndex] = System.nanoTime();
+        sampleIndex = (sampleIndex + 1) % SAMPLE_COUNT;
+        sampleCount = Math.min(sampleCount + 1, SAMPLE_COUNT);
+        updateLimit();
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized long getShedCount() {
+        return shedCount;
+    }
+
+    /**
+     * Gets the 99th percentile of the time taken to handle the requests that completed within the window
+     */
+    public synchronized Duration getLatencyP99() {
+        return Duration.ofNanos(getLatencyP99Nanos());
+    }
+
+    private void updateLimit() {
+        var now = System.nanoTime();
+        if (limitUpdated && now - limitUpdatedAt <= PERCENTILE_REFRESH_INTERVAL_NANOS) {
+            return;
+        }
+        limitUpdatedAt = now;
+        limitUpdated = true;
+        if (getLatencyP99Nanos() > maxLatencyNanos) {
+            limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+        }
+        else {
+            limit = Math.min(maxInFlight, limit + Math.sqrt(limit));
+        }
+    }
+
+    private long getLatencyP99Nanos() {
+        var now = System.nanoTime();
+        if (!latencyP99Computed || now - latencyP99ComputedAt > PERCENTILE_REFRESH_INTERVAL_NANOS) {
+            latencyP99Nanos = computeLatencyP99Nanos(now);
+            latencyP99ComputedAt = now;
+            latencyP99Computed = true;
+        }
+        return latencyP99Nanos;
+    }
+
+    private long computeLatencyP99Nanos(long now) {
+        var recent = new long[sampleCount];
+        var recentCount = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            if (now - completionTimes[i] <= windowNanos) {
+                recent[recentCount] = latencies[i];
+                recentCount++;
+            }
+        }
+        if (recentCount == 0) {
+            return 0;
+        }
+        Arrays.sort(recent, 0, recentCount);
+        var index = (int) Math.ceil(recentCount * 0.99) - 1;
+        return recent[index];
+    }
+}
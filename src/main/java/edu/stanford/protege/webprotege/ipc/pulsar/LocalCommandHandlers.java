@@ -0,0 +1,50 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.ipc.CommandHandler;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the {@link CommandHandler}s that are running in this process, keyed by channel.  If local dispatch is
+ * enabled then a {@link PulsarCommandExecutor} that sends requests on a channel that has a local handler calls the
+ * handler directly, rather than sending the request through the broker.
+ */
+public class LocalCommandHandlers {
+
+    private final boolean enabled;
+
+    private final Map<String, PulsarCommandHandlerWrapper<?, ?>> handlers = new ConcurrentHashMap<>();
+
+    public LocalCommandHandlers(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Registers the wrapper for a handler that is running in this process
+     */
+    public void register(PulsarCommandHandlerWrapper<?, ?> wrapper) {
+        handlers.putIfAbsent(wrapper.getChannelName(), wrapper);
+    }
+
+    /**
+     * Gets the local handler for a request
+     * @param request The request
+     * @return The wrapper for the local handler, which is empty if local dispatch is not enabled, if there is no
+     * handler for the channel of the request in this process, or if the handler does not accept the request.
+     */
+    @SuppressWarnings("unchecked")
+    public <Q extends Request<R>, R extends Response> Optional<PulsarCommandHandlerWrapper<Q, R>> get(Q request) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        var wrapper = handlers.get(request.getChannel());
+        if (wrapper == null || !wrapper.getRequestClass().isInstance(request)) {
+            return Optional.empty();
+        }
+        return Optional.of((PulsarCommandHandlerWrapper<Q, R>) wrapper);
+    }
+}
@@ -1,28 +1,42 @@
 package edu.stanford.protege.webprotege.ipc.pulsar;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.stanford.protege.webprotege.common.ProjectRequest;
 import edu.stanford.protege.webprotege.common.Request;
 import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.ipc.CacheableRequest;
 import edu.stanford.protege.webprotege.ipc.CommandExecutionException;
 import edu.stanford.protege.webprotege.ipc.CommandExecutor;
 import edu.stanford.protege.webprotege.ipc.ExecutionContext;
 import edu.stanford.protege.webprotege.ipc.Headers;
-import org.apache.pulsar.client.admin.PulsarAdmin;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import org.apache.pulsar.client.api.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Flux;
 
-import javax.annotation.PreDestroy;
-import java.io.IOException;
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 import static edu.stanford.protege.webprotege.ipc.pulsar.PulsarNamespaces.COMMAND_REQUESTS;
 
@@ -33,188 +47,679 @@ import static edu.stanford.protege.webprotege.ipc.pulsar.PulsarNamespaces.COMMAN
  * <p>
  * A {@link PulsarCommandExecutor} is used to execute a specific command that has a specific type of request and
  * a specific type of response.  That is, a given command executor instance only handles requests for single channel.
+ * <p>
+ * Every request has a deadline.  The deadline is either specified for a particular call, or it is the timeout for
+ * this executor (and hence channel), or it is the default timeout specified by the
+ * {@code webprotege.pulsar.command-executor.defaultTimeoutMillis} property.  Requests that have not received a reply
+ * by their deadline are removed from the table of pending replies and their futures are completed with a
+ * {@link CommandExecutionException} that has a status of {@link HttpStatus#GATEWAY_TIMEOUT}.
+ * <p>
+ * Replies are received by the {@link PulsarReplyInbox} that is shared by all executors in the process.  Requests are
+ * sent using producers that are obtained from the {@link PulsarProducersManager}.  An executor therefore does not
+ * hold any Pulsar consumers or producers of its own.
+ * <p>
+ * Requests are sent asynchronously so that the calling thread does not wait for the broker to acknowledge the
+ * request.  The number of sends that are waiting to be acknowledged for a channel is capped by the
+ * {@code webprotege.pulsar.command-executor.maxPendingSends} property.  Requests that cannot be sent, including
+ * requests that are rejected because this cap has been reached, complete with a {@link CommandExecutionException}.
+ * <p>
+ * Requests on channels that are listed in the {@code webprotege.pulsar.command-executor.coalescedChannels} property
+ * are coalesced.  While a request is in flight, identical requests (requests with the same channel, the same
+ * serialized form and the same user) attach to the in flight request rather than sending a new message.  Attached
+ * requests share the deadline of the in flight request.  Only channels whose requests are idempotent should be
+ * coalesced.
+ * <p>
+ * Responses to {@link CacheableRequest}s are served from the {@link CommandResponseCache} when possible.
+ * <p>
+ * {@link #executeAll(List, ExecutionContext)} sends a list of requests in a single message (a batch) and receives
+ * their responses in a single reply.  Batched requests are neither coalesced nor cached.
+ * <p>
+ * If {@code webprotege.pulsar.command-executor.concurrencyLimit.enabled} is true then the number of requests (and
+ * batches) that the executor has in flight is limited by an {@link AdaptiveConcurrencyLimiter}.  Requests that are
+ * served from the cache, or that attach to an identical in flight request, do not count towards the limit.  The
+ * limit, and the numbers of requests in flight and queued, are registered as gauges for the channel (see
+ * {@link CommandMetrics}) when the first request is sent.
+ * <p>
+ * If {@code webprotege.pulsar.command-executor.circuitBreaker.enabled} is true then requests are rejected, with a
+ * {@link CommandExecutionException} that has a status of {@link HttpStatus#SERVICE_UNAVAILABLE}, while the
+ * {@link CircuitBreaker} for their channel is open.
+ * <p>
+ * If {@code webprotege.pulsar.command-executor.localDispatch.enabled} is true, and the handler for a channel is
+ * running in this process, then requests on the channel are passed directly to the handler (see
+ * {@link LocalCommandHandlers}) rather than being sent through the broker.  Such requests are authorized in the same
+ * way, fail with the same {@link CommandExecutionException}s, and are ordered by project, run on the handler's
+ * executor and shed under load (see {@link PulsarCommandHandlerWrapper#handleLocalRequest}), as requests that are
+ * sent through the broker, but they are not serialized, coalesced, limited or subject to circuit breaking.  Streamed
+ * local requests are not ordered by project, run on the handler's executor or shed.  A local request that times out
+ * or is cancelled stops the handler.  Note that the handler receives the request object itself, rather than a copy,
+ * so requests must not be mutated.
+ * <p>
+ * Cancelling the future that is returned by {@link #execute(Request, ExecutionContext)} (for example, by cancelling
+ * the subscription to {@link #executeReactive(Request, ExecutionContext)}) removes the pending reply, releases any
+ * concurrency limit permit and, if {@code webprotege.pulsar.command-executor.sendCancelNotices} is true, sends a
+ * cancel notice so that the handler can stop work on the request.  Cancelling a request that is shared with other
+ * callers, because it was coalesced, cached or batched, only detaches the caller from the shared request.
+ * <p>
+ * {@link #executeStreaming(Request, ExecutionContext)} receives the response as a sequence of chunks (see
+ * {@link edu.stanford.protege.webprotege.ipc.StreamingCommandHandler}).  The timeout for a streamed response applies
+ * to each chunk rather than to the whole response.  Streamed requests are neither coalesced, cached, limited nor
+ * subject to circuit breaking.
  */
 public class PulsarCommandExecutor<Q extends Request<R>, R extends Response> implements CommandExecutor<Q, R> {
 
     private static final Logger logger = LoggerFactory.getLogger(PulsarCommandExecutor.class);
 
+    private static final TypeReference<List<BatchReplyItem>> BATCH_REPLY_TYPE = new TypeReference<>() {};
+
+    private static final IntConsumer NO_REPLY_SIZE_RECORDER = replySize -> {};
+
     private final Class<R> responseClass;
 
-    @Value("${spring.application.name}")
-    private String applicationName;
+    @Autowired
+    private ObjectMapper objectMapper;
 
     @Autowired
-    private PulsarClient pulsarClient;
+    private PulsarReplyInbox replyInbox;
 
     @Autowired
-    private PulsarAdmin pulsarAdmin;
+    private PulsarProducersManager producersManager;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private CommandResponseCache responseCache;
 
-    private Producer<byte[]> producer;
+    @Autowired
+    private CommandTimeoutTimer timeoutTimer;
 
-    private Consumer<byte[]> consumer;
+    @Autowired
+    private CircuitBreakers circuitBreakers;
 
-    private String requestChannel = null;
+    @Autowired
+    private LocalCommandHandlers localCommandHandlers;
 
-    private String replyChannel = null;
+    @Autowired(required = false)
+    private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
 
-    private final Map<String, CompletableFuture<R>> replyHandlers = new ConcurrentHashMap<>();
+    @Autowired
+    private CommandLogSampler logSampler;
+
+    @Autowired
+    private ChunkingSettings chunkingSettings;
+
+    @Autowired
+    private CommandMetrics commandMetrics;
 
     @Value("${webprotege.pulsar.tenant}")
     private String tenant;
 
+    @Value("${webprotege.pulsar.command-executor.defaultTimeoutMillis:60000}")
+    private long defaultTimeoutMillis;
+
+    @Value("${webprotege.pulsar.command-executor.maxPendingSends:1000}")
+    private int maxPendingSends;
+
+    @Value("${webprotege.pulsar.command-executor.sendCancelNotices:false}")
+    private boolean sendCancelNotices;
+
+    @Value("${webprotege.pulsar.command-executor.keyBasedBatching:true}")
+    private boolean keyBasedBatching;
+
+    @Value("${webprotege.pulsar.command-executor.coalescedChannels:}")
+    private Set<String> coalescedChannels = Set.of();
+
+    @Value("${webprotege.pulsar.command-executor.concurrencyLimit.enabled:false}")
+    private boolean concurrencyLimitEnabled;
+
+    @Value("${webprotege.pulsar.command-executor.concurrencyLimit.initialLimit:20}")
+    private int initialConcurrencyLimit;
+
+    @Value("${webprotege.pulsar.command-executor.concurrencyLimit.minLimit:1}")
+    private int minConcurrencyLimit;
+
+    @Value("${webprotege.pulsar.command-executor.concurrencyLimit.maxLimit:1000}")
+    private int maxConcurrencyLimit;
+
+    @Value("${webprotege.pulsar.command-executor.concurrencyLimit.maxQueueSize:0}")
+    private int maxConcurrencyLimitQueueSize;
+
+    @Value("${webprotege.pulsar.command-executor.concurrencyLimit.maxQueueWaitMillis:1000}")
+    private long maxConcurrencyLimitQueueWaitMillis;
+
+    @Nullable
+    private final Duration timeout;
+
+    private String requestChannel = null;
+
+    private final Map<RequestKey, CompletableFuture<R>> inFlightRequests = new ConcurrentHashMap<>();
+
+    @Nullable
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private final AtomicBoolean concurrencyLimiterBound = new AtomicBoolean();
+
 
     public PulsarCommandExecutor(Class<R> responseClass) {
+        this(responseClass, null);
+    }
+
+    /**
+     * Creates a {@link PulsarCommandExecutor} with a specific timeout for its channel.
+     * @param responseClass The class of responses
+     * @param timeout The timeout for requests that are executed by this executor.  If null then the default
+     *                timeout is used.
+     */
+    public PulsarCommandExecutor(Class<R> responseClass, @Nullable Duration timeout) {
         this.responseClass = responseClass;
+        this.timeout = timeout;
+    }
+
+    @PostConstruct
+    private void createConcurrencyLimiter() {
+        if (concurrencyLimitEnabled) {
+            concurrencyLimiter = new AdaptiveConcurrencyLimiter(initialConcurrencyLimit,
+                                                                minConcurrencyLimit,
+                                                                maxConcurrencyLimit,
+                                                                maxConcurrencyLimitQueueSize,
+                                                                Duration.ofMillis(maxConcurrencyLimitQueueWaitMillis),
+                                                                timeoutTimer);
+        }
+    }
+
+    /**
+     * Gets the limiter that limits the number of requests that this executor has in flight.
+     * @return The limiter, which is empty if concurrency limiting is not enabled
+     */
+    public Optional<AdaptiveConcurrencyLimiter> getConcurrencyLimiter() {
+        return Optional.ofNullable(concurrencyLimiter);
     }
 
     @Override
     public CompletableFuture<R> execute(Q request, ExecutionContext executionContext) {
+        return execute(request, executionContext, getTimeout());
+    }
+
+    @Override
+    public CompletableFuture<R> execute(Q request, ExecutionContext executionContext, Duration timeout) {
+        var observation = Observation.start(CommandObservations.EXECUTE, observationRegistry)
+                                     .lowCardinalityKeyValue(CommandObservations.CHANNEL, request.getChannel());
+        CompletableFuture<R> result;
+        try {
+            if (request instanceof CacheableRequest<?> cacheableRequest) {
+                var cacheKey = new CommandResponseCache.CacheKey(request.getChannel(),
+                                                                 executionContext.userId().value(),
+                                                                 cacheableRequest.getCacheKey());
+                result = responseCache.get(cacheKey,
+                                           cacheableRequest.getCacheTimeToLive(),
+                                           responseClass,
+                                           replySizeRecorder -> executeUncached(request, executionContext, timeout, replySizeRecorder));
+            }
+            else {
+                result = executeUncached(request, executionContext, timeout, NO_REPLY_SIZE_RECORDER);
+            }
+        } catch (RuntimeException e) {
+            // For example, the request could not be serialized or the producer could not be created
+            CommandObservations.stop(observation, e);
+            throw e;
+        }
+        result.whenComplete((response, error) -> CommandObservations.stop(observation, error));
+        return result;
+    }
+
+    /**
+     * Executes a request without consulting the response cache.
+     * @param replySizeRecorder Receives the size of the serialized reply, for weighing cached responses.  It is not
+     *                          called if the request is handled locally or if it attaches to an in flight request.
+     */
+    private CompletableFuture<R> executeUncached(Q request,
+                                                 ExecutionContext executionContext,
+                                                 Duration timeout,
+                                                 IntConsumer replySizeRecorder) {
+        var localHandler = localCommandHandlers.get(request);
+        if (localHandler.isPresent()) {
+            return executeLocally(localHandler.get(), request, executionContext, timeout);
+        }
         try {
-            var replyChannel = getReplyChannelName(request);
             var json = objectMapper.writeValueAsBytes(request);
+            if (!coalescedChannels.contains(request.getChannel())) {
+                return sendGuarded(request.getChannel(), () -> sendRequest(request, json, executionContext, timeout, replySizeRecorder));
+            }
+            var requestKey = new RequestKey(request.getChannel(), executionContext.userId().value(), ByteBuffer.wrap(json));
+            var inFlightRequest = new CompletableFuture<R>();
+            var existingInFlightRequest = inFlightRequests.putIfAbsent(requestKey, inFlightRequest);
+            if (existingInFlightRequest != null) {
+                logger.debug("Identical request is in flight on channel {}.  Attaching to in flight request.", requestChannel);
+                return attachTo(existingInFlightRequest);
+            }
+            CompletableFuture<R> sent;
             try {
-                var producer = getProducer(request);
-                var correlationId = UUID.randomUUID().toString();
-                var replyFuture = new CompletableFuture<R>();
-                replyHandlers.put(correlationId, replyFuture);
-                logger.info("ALEX avem consumer si producers. " +
-                                "Consumer  pe topic {} iar producer pe topic {}  si correlation id la mesaj {}.\n" +
-                                " reply handlers are dimensiunea {} si chei are {} ",
-                        consumer.getTopic(), producer.getTopic(), correlationId, replyHandlers.size(), replyHandlers.keySet());
-                var messageBuilder = producer.newMessage()
-                                             .value(json)
-                                             .property(Headers.CORRELATION_ID, correlationId)
-                                             .property(Headers.REPLY_CHANNEL, replyChannel)
-                                             .property(Headers.ACCESS_TOKEN, executionContext.jwt())
-                                             .property(Headers.USER_ID, executionContext.userId().value());
-                if (request instanceof ProjectRequest) {
-                    var projectId = ((ProjectRequest<?>) request).projectId().id();
-                    messageBuilder.property(Headers.PROJECT_ID, projectId);
-                    messageBuilder.key(projectId);
-                }
-                messageBuilder.send();
-                return replyFuture;
-            } catch (PulsarClientException e) {
-                e.printStackTrace();
-                return new CompletableFuture<>();
+                sent = sendGuarded(request.getChannel(), () -> sendRequest(request, json, executionContext, timeout, replySizeRecorder));
+            } catch (RuntimeException e) {
+                // Requests that attached in the meantime must not wait for a reply that will never arrive
+                inFlightRequests.remove(requestKey, inFlightRequest);
+                inFlightRequest.completeExceptionally(e);
+                throw e;
             }
+            sent.whenComplete((response, error) -> {
+                inFlightRequests.remove(requestKey, inFlightRequest);
+                complete(inFlightRequest, response, error);
+            });
+            return attachTo(inFlightRequest);
         } catch (JsonProcessingException e) {
             logger.error("JSON Processing Exception");
             throw new UncheckedIOException(e);
         }
     }
 
-    private synchronized Producer<byte[]> getProducer(Q request) {
+    /**
+     * Executes a request by calling a handler in this process.  The request is subject to the same deadline as a
+     * request that is sent through the broker, and the handler is stopped if the request times out or is cancelled.
+     */
+    private CompletableFuture<R> executeLocally(PulsarCommandHandlerWrapper<Q, R> localHandler,
+                                                Q request,
+                                                ExecutionContext executionContext,
+                                                Duration timeout) {
+        var result = new CompletableFuture<R>();
+        var localResult = localHandler.handleLocalRequest(request, executionContext);
+        var localTimeout = timeoutTimer.schedule(timeout, () -> {
+            if (result.completeExceptionally(new CommandExecutionException(HttpStatus.GATEWAY_TIMEOUT))) {
+                logger.warn("No response from local handler for request on channel {} within {} ms.  Timing out request.",
+                            request.getChannel(),
+                            timeout.toMillis());
+                // Nobody is waiting for the response any more, so the handler can stop
+                localResult.cancel(false);
+            }
+        });
+        propagateCancellation(result, localResult);
+        localResult.whenComplete((response, error) -> {
+            localTimeout.cancel();
+            complete(result, response, error);
+        });
+        return result;
+    }
+
+    private CompletableFuture<R> sendRequest(Q request,
+                                             byte[] json,
+                                             ExecutionContext executionContext,
+                                             Duration timeout,
+                                             IntConsumer replySizeRecorder) {
+        var producer = getProducer(request);
+        var replyChannel = replyInbox.getReplyChannel(request.getChannel());
+        var correlationId = replyInbox.nextCorrelationId();
+        var replyFuture = replyInbox.register(correlationId, data -> {
+            replySizeRecorder.accept(data.length);
+            return objectMapper.readValue(data, responseClass);
+        }, timeout);
+        if (logSampler.shouldLog(logger, request.getChannel())) {
+            logger.info("Sending request {} on channel {}.  Replies will be received on {}.",
+                        correlationId, request.getChannel(), replyChannel);
+        }
+        var messageBuilder = newRequestMessage(producer, json, correlationId, replyChannel, executionContext, timeout);
+        var projectId = getProjectId(request);
+        if (projectId != null) {
+            messageBuilder.property(Headers.PROJECT_ID, projectId);
+            messageBuilder.key(projectId);
+        }
+        sendAsync(messageBuilder, correlationId);
+        if (sendCancelNotices) {
+            replyFuture.whenComplete((response, error) -> {
+                if (replyFuture.isCancelled()) {
+                    sendCancelNotice(producer, correlationId, executionContext, projectId);
+                }
+            });
+        }
+        return replyFuture;
+    }
+
+    /**
+     * Sends a notice that tells the handler that the caller is no longer interested in the reply to a request.  The
+     * notice is sent on the request channel with the same key as the request.  It is a best effort: the handler
+     * ignores notices for requests that it has already finished handling, or that are being handled by a
+     * different consumer.
+     */
+    private void sendCancelNotice(Producer<byte[]> producer,
+                                  String correlationId,
+                                  ExecutionContext executionContext,
+                                  @Nullable String projectId) {
+        logger.debug("Request {} on channel {} was cancelled.  Sending cancel notice.", correlationId, requestChannel);
+        var messageBuilder = producer.newMessage()
+                                     .value(new byte[0])
+                                     .property(Headers.CANCEL, correlationId)
+                                     .property(Headers.USER_ID, executionContext.userId().value());
+        if (projectId != null) {
+            messageBuilder.key(projectId);
+        }
+        messageBuilder.sendAsync()
+                      .whenComplete((messageId, sendError) -> {
+                          if (sendError != null) {
+                              logger.debug("Could not send cancel notice for request {}", correlationId, sendError);
+                          }
+                      });
+    }
+
+    @Override
+    public Flux<R> executeStreaming(Q request, ExecutionContext executionContext) {
+        var localHandler = localCommandHandlers.get(request);
+        if (localHandler.isPresent()) {
+            return localHandler.get().handleLocalStreamingRequest(request, executionContext);
+        }
+        return Flux.defer(() -> sendStreamingRequest(request, executionContext));
+    }
+
+    private Flux<R> sendStreamingRequest(Q request, ExecutionContext executionContext) {
         try {
-            if (producer != null) {
-                return producer;
+            var json = objectMapper.writeValueAsBytes(request);
+            var producer = getProducer(request);
+            var replyChannel = replyInbox.getReplyChannel(request.getChannel());
+            var correlationId = replyInbox.nextCorrelationId();
+            var chunks = replyInbox.registerStream(correlationId,
+                                                   data -> objectMapper.readValue(data, responseClass),
+                                                   getTimeout());
+            var messageBuilder = newRequestMessage(producer, json, correlationId, replyChannel, executionContext, getTimeout())
+                    .property(Headers.STREAM, "true");
+            var projectId = getProjectId(request);
+            if (projectId != null) {
+                messageBuilder.property(Headers.PROJECT_ID, projectId);
+                messageBuilder.key(projectId);
             }
-            ensureConsumerIsListeningForRepliesToRequest(request);
-            if (requestChannel == null) {
-                requestChannel = request.getChannel();
+            sendAsync(messageBuilder, correlationId);
+            if (sendCancelNotices) {
+                return chunks.doOnCancel(() -> sendCancelNotice(producer, correlationId, executionContext, projectId));
             }
-            if (!this.requestChannel.equals(request.getChannel())) {
-                throw new RuntimeException(
-                        "Request channel is not the request channel that is in use by this CommandExecutor");
-            }
-            var topicName = "persistent://" + tenant + "/" + COMMAND_REQUESTS + "/" + requestChannel;
-            // TODO: Consider exposing settings as configuration properties
-            var producerName = applicationName + "--CommandExecutor--" + request.getChannel();
-            logger.info("ALEX post to topic {} and producerName {}", topicName, producerName);
-
-            return producer = pulsarClient.newProducer()
-                                          .producerName(producerName)
-                                          .topic(topicName)
-                                          .accessMode(ProducerAccessMode.Shared)
-                                          .create();
-        } catch (PulsarClientException e) {
-            throw new UncheckedIOException(e);
+            return chunks;
+        } catch (JsonProcessingException e) {
+            logger.error("JSON Processing Exception");
+            return Flux.error(new UncheckedIOException(e));
         }
     }
 
-    private void ensureConsumerIsListeningForRepliesToRequest(Q request) {
+    @Override
+    public List<CompletableFuture<R>> executeAll(List<Q> requests, ExecutionContext executionContext) {
+        if (requests.isEmpty()) {
+            return List.of();
+        }
+        var firstRequest = requests.get(0);
+        if (requests.stream().anyMatch(request -> !request.getChannel().equals(firstRequest.getChannel()))) {
+            throw new IllegalArgumentException("All requests in a batch must be for the same channel");
+        }
+        if (localCommandHandlers.get(firstRequest).isPresent()) {
+            // There is nothing to be gained by batching requests that are handled in this process
+            return requests.stream()
+                           .map(request -> execute(request, executionContext))
+                           .toList();
+        }
         try {
-            if (consumer != null) {
-                return;
-            }
-            if (this.replyChannel == null) {
-                this.replyChannel = getReplyChannelName(request);
-            }
-            if (!this.replyChannel.equals(getReplyChannelName(request))) {
-                throw new RuntimeException("Reply channel is not the channel that is in use by this command executor");
-            }
-            var replyTopic = "persistent://" + tenant + "/" + PulsarNamespaces.COMMAND_REPLIES + "/" + replyChannel;
-
-            // Replies need to go to all instances of our application/service.  In other words we have a pub/sub
-            // situation.  In this case we need unique subscription names with exclusive subscriptions for each
-            // consumer.
-            String replySubscriptionName = applicationName + "--" + replyChannel + "--" + UUID.randomUUID();
-            logger.info("Setting up consumer with subscription {} to listen for replies at {}",
-                    replySubscriptionName,
-                        replyTopic);
-            consumer = pulsarClient.newConsumer()
-                                   .subscriptionName(replySubscriptionName)
-                                   .subscriptionType(SubscriptionType.Exclusive)
-                                   .topic(replyTopic)
-                                   .messageListener(this::handleReplyMessageReceived)
-                                   .subscribe();
-        } catch (PulsarClientException e) {
+            var payload = objectMapper.createArrayNode();
+            requests.forEach(request -> payload.add(objectMapper.<JsonNode>valueToTree(request)));
+            var json = objectMapper.writeValueAsBytes(payload);
+            var replyFutures = requests.stream().map(request -> new CompletableFuture<R>()).toList();
+            sendGuarded(firstRequest.getChannel(), () -> sendBatch(requests, json, executionContext))
+                    .whenComplete((items, error) -> completeBatchReplies(replyFutures, items, error));
+            return replyFutures;
+        } catch (JsonProcessingException e) {
+            logger.error("JSON Processing Exception");
             throw new UncheckedIOException(e);
         }
     }
 
-    private void handleReplyMessageReceived(Consumer<byte[]> consumer, Message<byte[]> msg) {
+    private CompletableFuture<List<BatchReplyItem>> sendBatch(List<Q> requests, byte[] json, ExecutionContext executionContext) {
+        var firstRequest = requests.get(0);
+        var producer = getProducer(firstRequest);
+        var replyChannel = replyInbox.getReplyChannel(firstRequest.getChannel());
+        var correlationId = replyInbox.nextCorrelationId();
+        var batchReplyFuture = replyInbox.register(correlationId,
+                                                   data -> objectMapper.readValue(data, BATCH_REPLY_TYPE),
+                                                   getTimeout());
+        var messageBuilder = newRequestMessage(producer, json, correlationId, replyChannel, executionContext, getTimeout())
+                .property(Headers.BATCH, Integer.toString(requests.size()));
+        getCommonProjectId(requests).ifPresent(projectId -> {
+            messageBuilder.property(Headers.PROJECT_ID, projectId);
+            messageBuilder.key(projectId);
+        });
+        sendAsync(messageBuilder, correlationId);
+        return batchReplyFuture;
+    }
+
+    /**
+     * Sends a request, provided that the circuit breaker for the channel, if there is one, permits it.  Timeouts and
+     * server errors (5xx) count as failures for the circuit breaker.  Requests that are rejected by the concurrency
+     * limiter are not sent, and requests that are cancelled have no outcome, so neither count at all.
+     */
+    private <T> CompletableFuture<T> sendGuarded(String channel, Supplier<CompletableFuture<T>> sender) {
+        var circuitBreaker = circuitBreakers.get(channel);
+        if (circuitBreaker.isEmpty()) {
+            return withPermit(channel, sender);
+        }
+        var permission = circuitBreaker.get().tryAcquirePermission();
+        if (permission == null) {
+            logger.debug("Circuit breaker for channel {} is open.  Rejecting request.", channel);
+            return CompletableFuture.failedFuture(new CommandExecutionException(HttpStatus.SERVICE_UNAVAILABLE));
+        }
+        var sent = new AtomicBoolean();
         try {
-            var correlationId = msg.getProperty(Headers.CORRELATION_ID);
-            if (correlationId == null) {
-                logger.info("CorrelationId in reply message is missing.  Cannot handle reply.  Ignoring reply.");
+            var result = withPermit(channel, () -> {
+                sent.set(true);
+                return sender.get();
+            });
+            result.whenComplete((reply, error) -> {
+                if (!sent.get() || result.isCancelled()) {
+                    permission.onIgnored();
+                }
+                else if (isServerError(error)) {
+                    permission.onFailure();
+                }
+                else {
+                    permission.onSuccess();
+                }
+            });
+            return result;
+        } catch (RuntimeException e) {
+            permission.onFailure();
+            throw e;
+        }
+    }
+
+    private static boolean isServerError(@Nullable Throwable error) {
+        if (error == null) {
+            return false;
+        }
+        if (error instanceof CommandExecutionException ex) {
+            return ex.getStatusCode() >= 500;
+        }
+        return true;
+    }
+
+    /**
+     * Sends a request once a permit has been acquired from the concurrency limiter, if there is one.  The permit is
+     * released when the reply is received, or when the request fails.
+     */
+    private <T> CompletableFuture<T> withPermit(String channel, Supplier<CompletableFuture<T>> sender) {
+        if (concurrencyLimiter == null) {
+            return sender.get();
+        }
+        if (concurrencyLimiterBound.compareAndSet(false, true)) {
+            // The channel of an executor is not known until it sends its first request
+            commandMetrics.bindConcurrencyLimiter(channel, concurrencyLimiter);
+        }
+        var result = new CompletableFuture<T>();
+        concurrencyLimiter.acquire().whenComplete((permit, acquireError) -> {
+            if (acquireError != null) {
+                logger.warn("Too many requests in flight on channel {}.  Rejecting request.", requestChannel);
+                result.completeExceptionally(acquireError);
+                return;
+            }
+            if (result.isDone()) {
+                // The request was cancelled while waiting for a permit
+                permit.release(0, false);
                 return;
             }
-            logger.info("Alex a venit raspunsul pe correlationId {}", correlationId);
+            var startTime = System.nanoTime();
+            try {
+                var sent = sender.get();
+                propagateCancellation(result, sent);
+                sent.whenComplete((reply, error) -> {
+                    // The round trip time of a cancelled request says nothing about the handler
+                    var rttNanos = sent.isCancelled() ? 0 : System.nanoTime() - startTime;
+                    permit.release(rttNanos, isOverloadError(error));
+                    complete(result, reply, error);
+                });
+            } catch (RuntimeException e) {
+                permit.release(0, false);
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private static boolean isOverloadError(@Nullable Throwable error) {
+        if (error instanceof CommandExecutionException ex) {
+            return ex.getStatus() == HttpStatus.GATEWAY_TIMEOUT || ex.getStatus() == HttpStatus.SERVICE_UNAVAILABLE;
+        }
+        return false;
+    }
+
+    /**
+     * Cancels a future when another future is cancelled
+     */
+    private static void propagateCancellation(CompletableFuture<?> from, CompletableFuture<?> to) {
+        from.whenComplete((value, error) -> {
+            if (from.isCancelled()) {
+                to.cancel(false);
+            }
+        });
+    }
 
-            var error = msg.getProperty(Headers.ERROR);
-            if (error != null) {
-                var executionException = objectMapper.readValue(error, CommandExecutionException.class);
-                var replyHandler = replyHandlers.remove(correlationId);
-                replyHandler.completeExceptionally(executionException);
-                consumer.acknowledge(msg);
+    private static <T> void complete(CompletableFuture<T> future, T value, @Nullable Throwable error) {
+        if (error != null) {
+            future.completeExceptionally(error);
+        }
+        else {
+            future.complete(value);
+        }
+    }
+
+    private void completeBatchReplies(List<CompletableFuture<R>> replyFutures,
+                                      @Nullable List<BatchReplyItem> items,
+                                      @Nullable Throwable error) {
+        if (error != null) {
+            replyFutures.forEach(replyFuture -> replyFuture.completeExceptionally(error));
+            return;
+        }
+        if (items.size() != replyFutures.size()) {
+            logger.error("Batch reply on channel {} contains {} items.  Expected {} items.",
+                         requestChannel,
+                         items.size(),
+                         replyFutures.size());
+        }
+        for (int i = 0; i < replyFutures.size(); i++) {
+            var replyFuture = replyFutures.get(i);
+            if (i >= items.size()) {
+                replyFuture.completeExceptionally(new CommandExecutionException(HttpStatus.INTERNAL_SERVER_ERROR));
+                continue;
             }
-            else {
-                var replyHandler = replyHandlers.remove(correlationId);
-                var response = objectMapper.readValue(msg.getData(), responseClass);
-                logger.info("ALEX raspund la reply handler {} cu response {}", replyHandler, response);
-                consumer.acknowledge(msg);
-                replyHandler.complete(response);
-            }
-        } catch (PulsarClientException e) {
-            logger.error("Encountered Pulsar Client Exception", e);
-            throw new UncheckedIOException(e);
-        } catch (IOException e) {
-            logger.error("Cannot deserialize reply message on topic {}", consumer.getTopic(), e);
-            consumer.negativeAcknowledge(msg);
-        } catch (Exception e) {
-            logger.error("Unknown error {}", consumer.getTopic(), e);
-            consumer.negativeAcknowledge(msg);
+            var item = items.get(i);
+            if (item.statusCode() != null) {
+                replyFuture.completeExceptionally(new CommandExecutionException(item.statusCode()));
+                continue;
+            }
+            try {
+                replyFuture.complete(objectMapper.treeToValue(item.response(), responseClass));
+            } catch (JsonProcessingException e) {
+                logger.error("Cannot deserialize item {} of batch reply on channel {}", i, requestChannel, e);
+                replyFuture.completeExceptionally(new CommandExecutionException(HttpStatus.INTERNAL_SERVER_ERROR));
+            }
+        }
+    }
+
+    @Nullable
+    private static String getProjectId(Request<?> request) {
+        return request instanceof ProjectRequest<?> projectRequest ? projectRequest.projectId().id() : null;
+    }
+
+    private static Optional<String> getCommonProjectId(List<? extends Request<?>> requests) {
+        var projectIds = requests.stream()
+                                 .map(PulsarCommandExecutor::getProjectId)
+                                 .distinct()
+                                 .limit(2)
+                                 .toList();
+        if (projectIds.size() == 1 && projectIds.get(0) != null) {
+            return Optional.of(projectIds.get(0));
         }
+        return Optional.empty();
+    }
+
+    private TypedMessageBuilder<byte[]> newRequestMessage(Producer<byte[]> producer,
+                                                          byte[] json,
+                                                          String correlationId,
+                                                          String replyChannel,
+                                                          ExecutionContext executionContext,
+                                                          Duration timeout) {
+        var deadline = System.currentTimeMillis() + timeout.toMillis();
+        return producer.newMessage()
+                       .value(json)
+                       .property(Headers.CORRELATION_ID, correlationId)
+                       .property(Headers.REPLY_CHANNEL, replyChannel)
+                       .property(Headers.DEADLINE, Long.toString(deadline))
+                       .property(Headers.ACCESS_TOKEN, executionContext.jwt())
+                       .property(Headers.USER_ID, executionContext.userId().value());
+    }
+
+    private void sendAsync(TypedMessageBuilder<byte[]> messageBuilder, String correlationId) {
+        messageBuilder.sendAsync()
+                      .whenComplete((messageId, sendError) -> {
+                          if (sendError != null) {
+                              handleSendError(correlationId, sendError);
+                          }
+                      });
+    }
+
+    /**
+     * Gets a future that completes in the same way as an in flight request.  Each caller gets its own future so that
+     * one caller cannot complete or cancel the in flight request for other callers.
+     */
+    private static <R> CompletableFuture<R> attachTo(CompletableFuture<R> inFlightRequest) {
+        var attached = new CompletableFuture<R>();
+        inFlightRequest.whenComplete((response, error) -> complete(attached, response, error));
+        return attached;
     }
 
-    @PreDestroy
-    public void close() {
-        if (consumer != null) {
-            logger.info("Closing consumer listening to {}", consumer.getConsumerName());
-            consumer.unsubscribeAsync();
-            consumer.closeAsync();
+    private void handleSendError(String correlationId, Throwable sendError) {
+        var cause = sendError instanceof CompletionException ? sendError.getCause() : sendError;
+        if (cause instanceof PulsarClientException.ProducerQueueIsFullError) {
+            logger.warn("Too many pending sends on channel {}.  Rejecting request {}.", requestChannel, correlationId);
+            replyInbox.fail(correlationId, new CommandExecutionException(HttpStatus.SERVICE_UNAVAILABLE));
         }
-        if (producer != null) {
-            logger.info("Closing producer {}", producer.getProducerName());
-            producer.closeAsync();
+        else {
+            logger.error("Could not send request {} on channel {}", correlationId, requestChannel, cause);
+            replyInbox.fail(correlationId, new CommandExecutionException(HttpStatus.INTERNAL_SERVER_ERROR));
         }
     }
 
-    private String getReplyChannelName(Q request) {
-        return request.getChannel() + "--replies";
+    private Duration getTimeout() {
+        return timeout != null ? timeout : Duration.ofMillis(defaultTimeoutMillis);
+    }
+
+    private Producer<byte[]> getProducer(Q request) {
+        synchronized (this) {
+            if (requestChannel == null) {
+                requestChannel = request.getChannel();
+            }
+        }
+        if (!this.requestChannel.equals(request.getChannel())) {
+            throw new RuntimeException(
+                    "Request channel is not the request channel that is in use by this CommandExecutor");
+        }
+        var topicUrl = tenant + "/" + COMMAND_REQUESTS + "/" + requestChannel;
+        return producersManager.getProducer(topicUrl, producerBuilder -> {
+            producerBuilder.maxPendingMessages(maxPendingSends)
+                           .blockIfQueueFull(false);
+            if (keyBasedBatching) {
+                // Handlers with Key_Shared subscriptions need each batch to contain messages for a single key
+                producerBuilder.batcherBuilder(BatcherBuilder.KEY_BASED);
+            }
+            chunkingSettings.configure(producerBuilder);
+        });
+    }
+
+    private record RequestKey(String channel, String userId, ByteBuffer payload) {
+
     }
 }
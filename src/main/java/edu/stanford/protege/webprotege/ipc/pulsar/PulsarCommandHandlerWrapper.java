@@ -2,27 +2,45 @@ package edu.stanford.protege.webprotege.ipc.pulsar;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import edu.stanford.protege.webprotege.authorization.AuthorizationStatus;
-import edu.stanford.protege.webprotege.authorization.GetAuthorizationStatusRequest;
-import edu.stanford.protege.webprotege.authorization.GetAuthorizationStatusResponse;
+import edu.stanford.protege.webprotege.authorization.GetAuthorizedActionsRequest;
+import edu.stanford.protege.webprotege.authorization.GetAuthorizedActionsResponse;
 import edu.stanford.protege.webprotege.authorization.Subject;
+import edu.stanford.protege.webprotege.common.ProjectRequest;
 import edu.stanford.protege.webprotege.common.Request;
 import edu.stanford.protege.webprotege.common.Response;
 import edu.stanford.protege.webprotege.common.UserId;
 import edu.stanford.protege.webprotege.ipc.*;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import org.apache.pulsar.client.api.Consumer;
 import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
 import org.apache.pulsar.client.api.PulsarClient;
 import org.apache.pulsar.client.api.PulsarClientException;
+import org.apache.pulsar.client.api.SubscriptionType;
 import org.apache.pulsar.shade.javax.ws.rs.BadRequestException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
+import javax.annotation.Nullable;
 import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import static edu.stanford.protege.webprotege.ipc.Headers.*;
 
@@ -30,11 +48,57 @@ import static edu.stanford.protege.webprotege.ipc.Headers.*;
  * Matthew Horridge
  * Stanford Center for Biomedical Informatics Research
  * 2022-02-02
+ * <p>
+ * Subscribes a {@link CommandHandler} to its request channel.  Request messages contain either a single request or,
+ * if the {@link Headers#BATCH} header is present, a list of requests.  The requests in a batch are authorized and
+ * handled concurrently and their responses (or errors) are sent back, in order, in a single reply message.
+ * <p>
+ * Requests from executors in the same process can also be handled directly, using
+ * {@link #handleLocalRequest(Request, ExecutionContext)}.  See {@link LocalCommandHandlers}.  Local requests are
+ * ordered by project, handed over to the handler's executor and subject to load shedding in the same way as requests
+ * that are received from the broker.
+ * <p>
+ * If a request message has the {@link Headers#STREAM} header then the response is sent as a sequence of chunk
+ * messages, followed by a message with the {@link Headers#STREAM_END} header.  See {@link StreamingCommandHandler}.
+ * <p>
+ * By default, requests are handled on the Pulsar client's listener threads, which are shared by all consumers in the
+ * process.  If the handler is given its own threads then request messages are handed over to a bounded executor
+ * that belongs to this wrapper, so that a slow handler cannot hold up message delivery to other consumers.  When
+ * the executor's queue is full, requests are rejected with a {@link HttpStatus#SERVICE_UNAVAILABLE} error.
+ * <p>
+ * Requests can be handled by several instances of a service at once by using a Key_Shared subscription.  Requests
+ * for a project are keyed by the project id, so the broker delivers all requests for one project to the same
+ * consumer.  Within the consumer, requests with the same key are handled one at a time, in the order in which they
+ * were received, while requests for different projects are handled in parallel.  Note that the broker does not
+ * allow a subscription to change its type while it has connected consumers.
+ * <p>
+ * If dropping expired requests is enabled then requests whose {@link Headers#DEADLINE} has passed are dropped without
+ * a reply, because their callers have already given up on them.  The deadline is checked before the request is
+ * parsed, before it is authorized and before it is handled.  Deadlines are compared with the local clock, so the
+ * clocks of the hosts that send and handle requests should be synchronized.
+ * <p>
+ * Request messages can be redelivered, for example, after a broker failover.  If the {@link CompletedReplyCache} is
+ * enabled then the reply to a redelivered request is replayed from the cache, and a redelivered request that is
+ * still being handled is ignored, so that the request is not handled twice.  Streamed responses are not cached.
+ * <p>
+ * If load shedding is enabled then a {@link LoadShedder} tracks the requests that are in flight and the latency of
+ * recent requests.  When the handler is overloaded, new requests are either rejected, before they are parsed, with a
+ * {@link HttpStatus#SERVICE_UNAVAILABLE} error, or the consumer is paused until the handler has caught up.  Pausing
+ * stops the consumer from fetching more messages from the broker, but messages that have already been fetched are
+ * still handled.
+ * <p>
+ * A request message with the {@link Headers#CANCEL} header is a cancel notice.  If the request that it refers to is
+ * still being handled by this wrapper then the subscription to the handler's response is disposed and no reply is
+ * sent.
  */
 public class PulsarCommandHandlerWrapper<Q extends Request<R>, R extends Response> {
 
     private static final Logger logger = LoggerFactory.getLogger(PulsarCommandHandlerWrapper.class);
 
+    private static final int STREAM_SEND_WINDOW = 16;
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
     private final String applicationName;
 
     private final String tenant;
@@ -45,26 +109,286 @@ public class PulsarCommandHandlerWrapper<Q extends Request<R>, R extends Respons
 
     private final ObjectMapper objectMapper;
 
-    private final PulsarProducersManager producersManager;
+    private final PulsarReplySender replySender;
+
+    private final CommandExecutor<GetAuthorizedActionsRequest, GetAuthorizedActionsResponse> authorizedActionsExecutor;
+
+    private final AuthorizationStatusCache authorizationStatusCache;
+
+    private final CompletedReplyCache completedReplyCache;
+
+    private final int batchConcurrency;
+
+    @Nullable
+    private final ExecutorService handlerExecutor;
+
+    @Nullable
+    private final Scheduler handlerScheduler;
+
+    @Nullable
+    private final ExecutorService keyDispatchExecutor;
 
-    private final CommandExecutor<GetAuthorizationStatusRequest, GetAuthorizationStatusResponse> authorizationStatusExecutor;
+    @Nullable
+    private final KeyedSerialExecutor keySerialExecutor;
+
+    private final boolean dropExpiredRequests;
+
+    @Nullable
+    private final LoadShedder loadShedder;
+
+    private final ObservationRegistry observationRegistry;
+
+    private final CommandLogSampler logSampler;
+
+    private final ChunkingSettings chunkingSettings;
+
+    private boolean consumerPaused = false;
+
+    private final LongAdder expiredRequestCount = new LongAdder();
 
     private Consumer<byte[]> consumer;
 
+    private final Map<String, InFlightRequest> inFlightRequests = new ConcurrentHashMap<>();
+
     public PulsarCommandHandlerWrapper(String applicationName,
                                        @Value("webprotege.pulsar.tenant") String tenant,
                                        PulsarClient pulsarClient,
                                        CommandHandler<Q, R> handler,
                                        ObjectMapper objectMapper,
-                                       PulsarProducersManager producersManager,
-                                       CommandExecutor<GetAuthorizationStatusRequest, GetAuthorizationStatusResponse> authorizationStatusExecutor) {
+                                       PulsarReplySender replySender,
+                                       CommandExecutor<GetAuthorizedActionsRequest, GetAuthorizedActionsResponse> authorizedActionsExecutor,
+                                       AuthorizationStatusCache authorizationStatusCache,
+                                       CompletedReplyCache completedReplyCache,
+                                       int batchConcurrency,
+                                       int handlerThreads,
+                                       int handlerQueueSize,
+                                       boolean keyShared,
+                                       int maxQueuedRequestsPerKey,
+                                       boolean dropExpiredRequests,
+                                       @Nullable LoadShedder loadShedder,
+                                       ObservationRegistry observationRegistry,
+                                       CommandLogSampler logSampler,
+                                       ChunkingSettings chunkingSettings) {
+        if (keyShared && chunkingSettings.enabled()) {
+            // Pulsar does not reassemble chunked messages on Key_Shared subscriptions, so large requests would time out
+            throw new IllegalStateException("Chunking cannot be enabled for the Key_Shared subscription for channel " + handler.getChannelName()
+                                                    + ".  Turn off webprotege.pulsar.chunking.enabled or webprotege.pulsar.command-handler.keyShared.enabled.");
+        }
         this.applicationName = applicationName;
         this.tenant = tenant;
         this.pulsarClient = pulsarClient;
         this.handler = handler;
         this.objectMapper = objectMapper;
-        this.producersManager = producersManager;
-        this.authorizationStatusExecutor = authorizationStatusExecutor;
+        this.replySender = replySender;
+        this.authorizedActionsExecutor = authorizedActionsExecutor;
+        this.authorizationStatusCache = authorizationStatusCache;
+        this.completedReplyCache = completedReplyCache;
+        this.batchConcurrency = batchConcurrency;
+        if (handlerThreads > 0) {
+            this.handlerExecutor = createHandlerExecutor(handler.getChannelName(), handlerThreads, handlerQueueSize);
+            this.handlerScheduler = Schedulers.fromExecutorService(handlerExecutor, handler.getChannelName());
+        }
+        else {
+            this.handlerExecutor = null;
+            this.handlerScheduler = null;
+        }
+        if (keyShared) {
+            this.keyDispatchExecutor = createKeyDispatchExecutor(handler.getChannelName());
+            this.keySerialExecutor = new KeyedSerialExecutor(keyDispatchExecutor, maxQueuedRequestsPerKey);
+        }
+        else {
+            this.keyDispatchExecutor = null;
+            this.keySerialExecutor = null;
+        }
+        this.dropExpiredRequests = dropExpiredRequests;
+        this.loadShedder = loadShedder;
+        this.observationRegistry = observationRegistry;
+        this.logSampler = logSampler;
+        this.chunkingSettings = chunkingSettings;
+    }
+
+    private static ExecutorService createHandlerExecutor(String channelName, int threads, int queueSize) {
+        var threadCount = new AtomicInteger();
+        BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue, runnable -> {
+            var thread = new Thread(runnable, "command-handler-" + channelName + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates the executor that dispatches requests that had to wait for an earlier request with the same key.  The
+     * number of waiting requests is bounded by the keyed serial executor, so the queue of this executor is not.
+     */
+    private static ExecutorService createKeyDispatchExecutor(String channelName) {
+        var threadCount = new AtomicInteger();
+        var threads = Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            var thread = new Thread(runnable, "command-handler-" + channelName + "-keyed-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gets the name of the channel that the wrapped handler handles requests from
+     */
+    public String getChannelName() {
+        return handler.getChannelName();
+    }
+
+    /**
+     * Gets the class of requests that the wrapped handler handles
+     */
+    public Class<Q> getRequestClass() {
+        return handler.getRequestClass();
+    }
+
+    /**
+     * Gets the load shedder for the handler
+     * @return The load shedder, which is empty if load shedding is not enabled
+     */
+    public Optional<LoadShedder> getLoadShedder() {
+        return Optional.ofNullable(loadShedder);
+    }
+
+    /**
+     * Gets the number of requests that have been received from the broker but that have not yet started to be
+     * handled.  These are the requests in the receiver queue of the consumer, the requests that are waiting for an
+     * earlier request with the same key, and the requests that are waiting for a thread from this handler's own
+     * executor.
+     */
+    public int getBacklog() {
+        var backlog = 0;
+        var consumer = this.consumer;
+        if (consumer != null) {
+            var receiverQueueSize = consumer.getStats().getMsgNumInReceiverQueue();
+            if (receiverQueueSize != null) {
+                backlog += receiverQueueSize;
+            }
+        }
+        if (keySerialExecutor != null) {
+            backlog += keySerialExecutor.getQueuedTaskCount();
+        }
+        if (handlerExecutor instanceof ThreadPoolExecutor threadPoolExecutor) {
+            backlog += threadPoolExecutor.getQueue().size();
+        }
+        return backlog;
+    }
+
+    /**
+     * Gets the number of requests from the broker that are being handled
+     */
+    public int getInFlightRequestCount() {
+        return inFlightRequests.size();
+    }
+
+    /**
+     * Gets the number of requests that were dropped because their deadline had passed
+     */
+    public long getExpiredRequestCount() {
+        return expiredRequestCount.sum();
+    }
+
+    /**
+     * Handles a request that was sent from within this process, without going through the broker.  The request is
+     * authorized and handled in exactly the same way as a request that is received from the broker.  If the
+     * subscription is a Key_Shared subscription then it waits for earlier requests for the same project, if the
+     * handler has its own executor then it is handled on that executor, and if load shedding is enabled then it is
+     * rejected while the handler is overloaded.  Because a local request cannot be left with the broker, it is
+     * rejected, rather than held back, in both load shedding modes.  Errors are signalled as
+     * {@link CommandExecutionException}s with the same statuses that would be sent in a reply.
+     * @param request The request
+     * @param executionContext The execution context of the caller
+     * @return A future of the response.  Cancelling the future stops the handling of the request.
+     */
+    public CompletableFuture<R> handleLocalRequest(Q request, ExecutionContext executionContext) {
+        var result = new CompletableFuture<R>();
+        if (keySerialExecutor == null || !(request instanceof ProjectRequest<?> projectRequest)) {
+            dispatchLocalRequest(request, executionContext, result);
+        }
+        else if (!keySerialExecutor.execute(projectRequest.projectId().id(),
+                                            () -> dispatchLocalRequest(request, executionContext, result))) {
+            logger.warn("Too many requests for key {} are waiting on channel {}.", projectRequest.projectId().id(), handler.getChannelName());
+            result.completeExceptionally(new CommandExecutionException(HttpStatus.SERVICE_UNAVAILABLE));
+        }
+        return result;
+    }
+
+    /**
+     * Hands a local request over to the handler's executor, if it has one
+     * @return A future that completes when the request has been handled
+     */
+    private CompletableFuture<Void> dispatchLocalRequest(Q request, ExecutionContext executionContext, CompletableFuture<R> result) {
+        if (handlerExecutor == null) {
+            return handleLocalRequestNow(request, executionContext, result);
+        }
+        var completion = new CompletableFuture<Void>();
+        try {
+            handlerExecutor.execute(() -> handleLocalRequestNow(request, executionContext, result)
+                    .whenComplete((r, error) -> completion.complete(null)));
+            return completion;
+        } catch (RejectedExecutionException e) {
+            logger.warn("Handler for channel {} is overloaded.  Rejecting local request.", handler.getChannelName());
+            result.completeExceptionally(new CommandExecutionException(HttpStatus.SERVICE_UNAVAILABLE));
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private CompletableFuture<Void> handleLocalRequestNow(Q request, ExecutionContext executionContext, CompletableFuture<R> result) {
+        if (result.isDone()) {
+            // The caller cancelled the request, or timed out, while it was waiting
+            return CompletableFuture.completedFuture(null);
+        }
+        if (loadShedder != null && loadShedder.isOverloaded()) {
+            logger.debug("Handler for channel {} is overloaded.  Rejecting local request.", handler.getChannelName());
+            loadShedder.onShed();
+            result.completeExceptionally(new CommandExecutionException(HttpStatus.SERVICE_UNAVAILABLE));
+            return CompletableFuture.completedFuture(null);
+        }
+        if (loadShedder != null) {
+            loadShedder.onStart();
+            updateConsumerPaused();
+        }
+        var startTime = System.nanoTime();
+        var completion = new CompletableFuture<Void>();
+        var userId = executionContext.userId().value();
+        var subscription = authorizeAndHandleRequest(userId, request, executionContext.jwt(), NO_DEADLINE)
+                .onErrorMap(throwable -> !(throwable instanceof CommandExecutionException),
+                            throwable -> toLocalRequestError(request, throwable))
+                .doFinally(signal -> {
+                    if (loadShedder != null) {
+                        loadShedder.onComplete(System.nanoTime() - startTime);
+                        updateConsumerPaused();
+                    }
+                    completion.complete(null);
+                })
+                .subscribe(result::complete, result::completeExceptionally);
+        // Stops the handler if the caller cancels the request.  Disposing a completed subscription does nothing.
+        result.whenComplete((response, error) -> subscription.dispose());
+        return completion;
+    }
+
+    /**
+     * Handles a request that was sent from within this process, and whose response is streamed.  See
+     * {@link #handleLocalRequest(Request, ExecutionContext)}.  Streamed local requests are not ordered by project,
+     * handed over to the handler's executor or subject to load shedding.
+     */
+    public Flux<R> handleLocalStreamingRequest(Q request, ExecutionContext executionContext) {
+        var userId = executionContext.userId().value();
+        return authorizeAndHandleStreamingRequest(userId, request, executionContext.jwt(), NO_DEADLINE)
+                .onErrorMap(throwable -> !(throwable instanceof CommandExecutionException),
+                            throwable -> toLocalRequestError(request, throwable));
+    }
+
+    private CommandExecutionException toLocalRequestError(Q request, Throwable throwable) {
+        logger.info(
+                "The command handler threw an exception while handling a local request.  Exception class: {}, Message: {},  Request: {}",
+                throwable.getClass().getName(),
+                throwable.getMessage(),
+                describeRequest(request));
+        return new CommandExecutionException(HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
     public void unsubscribe() {
@@ -73,21 +397,80 @@ public class PulsarCommandHandlerWrapper<Q extends Request<R>, R extends Respons
         } catch (PulsarClientException e) {
             logger.warn("An exception was thrown when unsubscribing", e);
         }
+        if (handlerScheduler != null) {
+            handlerScheduler.dispose();
+        }
+        if (keyDispatchExecutor != null) {
+            keyDispatchExecutor.shutdown();
+        }
     }
 
     public void subscribe() {
         try {
-            consumer = pulsarClient.newConsumer()
-                                        .topic(getRequestsTopicUrl(handler))
-                                        .subscriptionName(getSubscriptionName(handler))
-                                        .messageListener(this::handleCommandMessage)
-                                        .subscribe();
+            var consumerBuilder = pulsarClient.newConsumer()
+                                              .topic(getRequestsTopicUrl(handler))
+                                              .subscriptionName(getSubscriptionName(handler))
+                                              .subscriptionType(keySerialExecutor != null ? SubscriptionType.Key_Shared : SubscriptionType.Exclusive)
+                                              .messageListener(this::receiveCommandMessage);
+            chunkingSettings.configure(consumerBuilder);
+            consumer = consumerBuilder.subscribe();
         } catch (PulsarClientException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    private void handleCommandMessage(Consumer<byte[]> consumer, Message<byte[]> message) {
+    /**
+     * Receives a message on the Pulsar listener thread.  If the subscription is a Key_Shared subscription then
+     * messages with the same key (the same project) are handled one after the other, otherwise the message is
+     * dispatched straight away.  Cancel notices are never held back behind the request that they cancel.  Messages
+     * that arrive when too many messages with the same key are waiting are rejected with a
+     * {@link HttpStatus#SERVICE_UNAVAILABLE} error.
+     */
+    private void receiveCommandMessage(Consumer<byte[]> consumer, Message<byte[]> message) {
+        if (keySerialExecutor != null && message.hasKey() && !message.hasProperty(CANCEL)) {
+            if (!keySerialExecutor.execute(message.getKey(), () -> dispatchCommandMessage(consumer, message))) {
+                logger.warn("Too many requests for key {} are waiting on channel {}.", message.getKey(), handler.getChannelName());
+                rejectOverloadedMessage(consumer, message);
+            }
+        }
+        else {
+            dispatchCommandMessage(consumer, message);
+        }
+    }
+
+    /**
+     * Dispatches a message and, if this handler has its own executor, hands it over to the executor.  Messages that
+     * cannot be accepted by the executor, because its queue is full, are rejected with a
+     * {@link HttpStatus#SERVICE_UNAVAILABLE} error.
+     * @return A future that completes when the message has been handled
+     */
+    private CompletableFuture<Void> dispatchCommandMessage(Consumer<byte[]> consumer, Message<byte[]> message) {
+        if (handlerExecutor == null) {
+            return handleCommandMessage(consumer, message);
+        }
+        var completion = new CompletableFuture<Void>();
+        try {
+            handlerExecutor.execute(() -> handleCommandMessage(consumer, message)
+                    .whenComplete((result, error) -> completion.complete(null)));
+            return completion;
+        } catch (RejectedExecutionException e) {
+            rejectOverloadedMessage(consumer, message);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private void rejectOverloadedMessage(Consumer<byte[]> consumer, Message<byte[]> message) {
+        var replyChannel = message.getProperty(Headers.REPLY_CHANNEL);
+        var correlationId = message.getProperty(Headers.CORRELATION_ID);
+        logger.warn("Handler for channel {} is overloaded.  Rejecting request {}.", handler.getChannelName(), correlationId);
+        if (replyChannel != null && correlationId != null) {
+            var userId = message.getProperty(USER_ID);
+            replyWithErrorResponse(replyChannel, correlationId, userId != null ? userId : "", HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        consumer.acknowledgeAsync(message);
+    }
+
+    private CompletableFuture<Void> handleCommandMessage(Consumer<byte[]> consumer, Message<byte[]> message) {
 
         // Check vital headers are present (replyChannel, correlationId, userId, JWT?).  If vital headers are not
         // present then the call fails.
@@ -108,18 +491,25 @@ public class PulsarCommandHandlerWrapper<Q extends Request<R>, R extends Respons
         // If the return value is not an exception then we serialize it.
 
 
+        var cancelledCorrelationId = message.getProperty(CANCEL);
+        if (cancelledCorrelationId != null) {
+            handleCancelNotice(cancelledCorrelationId, message.getProperty(USER_ID));
+            consumer.acknowledgeAsync(message);
+            return CompletableFuture.completedFuture(null);
+        }
+
         var replyChannel = message.getProperty(Headers.REPLY_CHANNEL);
         if (replyChannel == null) {
             logger.error(Headers.REPLY_CHANNEL + " header is missing.  Cannot reply to message.");
             consumer.acknowledgeAsync(message);
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         var correlationId = message.getProperty(Headers.CORRELATION_ID);
         if (correlationId == null) {
             logger.error(Headers.CORRELATION_ID + " header is missing.  Cannot process message.");
             consumer.acknowledgeAsync(message);
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         var userId = message.getProperty(USER_ID);
@@ -128,7 +518,7 @@ public class PulsarCommandHandlerWrapper<Q extends Request<R>, R extends Respons
                          replyChannel);
             replyWithErrorResponse(replyChannel, correlationId, "", HttpStatus.FORBIDDEN);
             consumer.acknowledgeAsync(message);
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         var accessToken = message.getProperty(ACCESS_TOKEN);
@@ -137,7 +527,7 @@ public class PulsarCommandHandlerWrapper<Q extends Request<R>, R extends Respons
                     replyChannel);
             replyWithErrorResponse(replyChannel, correlationId, "", HttpStatus.FORBIDDEN);
             consumer.acknowledgeAsync(message);
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
 
@@ -150,103 +540,455 @@ public class PulsarCommandHandlerWrapper<Q extends Request<R>, R extends Respons
         //        replyHeaders.add(new RecordHeader(Headers.ACCESS_TOKEN, accessToken.value()));
 
 
-        parseAndHandleRequest(consumer, message, replyChannel, correlationId, userId, accessToken);
+        if (completedReplyCache.isEnabled()) {
+            var completedReply = completedReplyCache.get(correlationId, userId);
+            if (completedReply.isPresent()) {
+                logger.debug("Request {} has been redelivered.  Replaying the reply that was sent.", correlationId);
+                replayCompletedReply(replyChannel, correlationId, completedReply.get());
+                consumer.acknowledgeAsync(message);
+                return CompletableFuture.completedFuture(null);
+            }
+            if (inFlightRequests.containsKey(correlationId)) {
+                logger.debug("Request {} has been redelivered while it is being handled.  Ignoring the redelivered request.", correlationId);
+                consumer.acknowledgeAsync(message);
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+
+        var deadline = getDeadline(message);
+        if (isExpired(deadline)) {
+            dropExpiredRequest(correlationId);
+            consumer.acknowledgeAsync(message);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (loadShedder == null) {
+            return parseAndHandleMessage(consumer, message, replyChannel, correlationId, userId, accessToken, deadline);
+        }
+        if (loadShedder.getMode() == LoadShedder.Mode.REJECT && loadShedder.isOverloaded()) {
+            logger.debug("Handler for channel {} is overloaded.  Rejecting request {}.", handler.getChannelName(), correlationId);
+            loadShedder.onShed();
+            replyWithErrorResponse(replyChannel, correlationId, userId, HttpStatus.SERVICE_UNAVAILABLE);
+            consumer.acknowledgeAsync(message);
+            return CompletableFuture.completedFuture(null);
+        }
+        loadShedder.onStart();
+        var startTime = System.nanoTime();
+        var completion = parseAndHandleMessage(consumer, message, replyChannel, correlationId, userId, accessToken, deadline);
+        updateConsumerPaused();
+        return completion.whenComplete((result, error) -> {
+            loadShedder.onComplete(System.nanoTime() - startTime);
+            updateConsumerPaused();
+        });
+    }
+
+    private CompletableFuture<Void> parseAndHandleMessage(Consumer<byte[]> consumer,
+                                                          Message<byte[]> message,
+                                                          String replyChannel,
+                                                          String correlationId,
+                                                          String userId,
+                                                          String accessToken,
+                                                          long deadline) {
+        if (message.hasProperty(BATCH)) {
+            return parseAndHandleBatchRequest(consumer, message, replyChannel, correlationId, userId, accessToken, deadline);
+        }
+        else if (message.hasProperty(STREAM)) {
+            return parseAndHandleStreamingRequest(consumer, message, replyChannel, correlationId, userId, accessToken, deadline);
+        }
+        else {
+            return parseAndHandleRequest(consumer, message, replyChannel, correlationId, userId, accessToken, deadline);
+        }
+    }
+
+    /**
+     * Pauses the consumer if the load shedder is in {@link LoadShedder.Mode#PAUSE} mode and the handler is
+     * overloaded, and resumes it when the handler is no longer overloaded.
+     */
+    private synchronized void updateConsumerPaused() {
+        if (loadShedder.getMode() != LoadShedder.Mode.PAUSE || consumer == null) {
+            return;
+        }
+        var overloaded = loadShedder.isOverloaded();
+        if (overloaded && !consumerPaused) {
+            logger.info("Handler for channel {} is overloaded.  Pausing consumer.", handler.getChannelName());
+            consumer.pause();
+            consumerPaused = true;
+        }
+        else if (!overloaded && consumerPaused) {
+            logger.info("Handler for channel {} is no longer overloaded.  Resuming consumer.", handler.getChannelName());
+            consumer.resume();
+            consumerPaused = false;
+        }
     }
 
-    private void parseAndHandleRequest(Consumer<byte[]> consumer,
-                                       Message<byte[]> message,
-                                       String replyChannel,
-                                       String correlationId,
-                                       String userId,
-                                       String accessToken) {
+    private CompletableFuture<Void> parseAndHandleRequest(Consumer<byte[]> consumer,
+                                                          Message<byte[]> message,
+                                                          String replyChannel,
+                                                          String correlationId,
+                                                          String userId,
+                                                          String accessToken,
+                                                          long deadline) {
         try {
             var payload = message.getData();
-            var request = objectMapper.readValue(payload, handler.getRequestClass());
-            logger.info("ALEX correlationID {}  handler {}" ,correlationId, handler.getClass());
+            var parse = startStage(CommandObservations.STAGE_PARSE);
+            Q request;
+            try {
+                request = objectMapper.readValue(payload, handler.getRequestClass());
+            } finally {
+                parse.stop();
+            }
+            if (logSampler.shouldLog(logger, handler.getChannelName())) {
+                logger.info("Received request {} on channel {}", correlationId, handler.getChannelName());
+            }
             // The request has successfully been read.  All required headers are present and the request body
             // is well-formed so acknowledge the request (i.e. it shouldn't be dead-lettered)
             consumer.acknowledgeAsync(message);
 
-            if (handler instanceof AuthorizedCommandHandler<Q, R> authorizedCommandHandler) {
-                authorizeAndReplyToRequest(replyChannel, correlationId, userId, request, authorizedCommandHandler, accessToken);
+            return subscribeInFlight(correlationId, userId, authorizeAndHandleRequest(userId, request, accessToken, deadline), r -> {
+                replyWithSuccessResponse(replyChannel, correlationId, userId, r);
+            }, throwable -> {
+                if (throwable instanceof CommandExecutionException ex) {
+                    replyWithErrorResponse(replyChannel, correlationId, userId, ex.getStatus());
+                }
+                else {
+                    replyWithInternalServerError(replyChannel, correlationId, userId, request, throwable);
+                }
+            });
+
+        } catch (IOException e) {
+            logger.error("Could not parse request", e);
+            consumer.negativeAcknowledge(message);
+            replyWithErrorResponse(replyChannel, correlationId, userId, HttpStatus.BAD_REQUEST);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private CompletableFuture<Void> parseAndHandleBatchRequest(Consumer<byte[]> consumer,
+                                                               Message<byte[]> message,
+                                                               String replyChannel,
+                                                               String correlationId,
+                                                               String userId,
+                                                               String accessToken,
+                                                               long deadline) {
+        try {
+            var payload = message.getData();
+            var requestListType = objectMapper.getTypeFactory().constructCollectionType(List.class, handler.getRequestClass());
+            var parse = startStage(CommandObservations.STAGE_PARSE);
+            List<Q> requests;
+            try {
+                requests = objectMapper.readValue(payload, requestListType);
+            } finally {
+                parse.stop();
             }
-            else {
-                handleAndReplyToRequest(replyChannel, correlationId, userId, request, accessToken);
+            // See parseAndHandleRequest
+            consumer.acknowledgeAsync(message);
+
+            var batchResponse = Flux.fromIterable(requests)
+                                    .flatMapSequential(request -> authorizeAndHandleRequest(userId, request, accessToken, deadline)
+                                                               .map(response -> BatchReplyItem.success(objectMapper.valueToTree(response)))
+                                                               .onErrorResume(throwable -> Mono.just(BatchReplyItem.error(getErrorStatus(request, throwable)))),
+                                                       batchConcurrency)
+                                    .collectList();
+            return subscribeInFlight(correlationId,
+                                     userId,
+                                     batchResponse,
+                                     items -> replyWithBatchResponse(replyChannel, correlationId, userId, items),
+                                     throwable -> logger.error("Error while handling batch request", throwable));
+
+        } catch (IOException e) {
+            logger.error("Could not parse batch request", e);
+            consumer.negativeAcknowledge(message);
+            replyWithErrorResponse(replyChannel, correlationId, userId, HttpStatus.BAD_REQUEST);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private CompletableFuture<Void> parseAndHandleStreamingRequest(Consumer<byte[]> consumer,
+                                                                   Message<byte[]> message,
+                                                                   String replyChannel,
+                                                                   String correlationId,
+                                                                   String userId,
+                                                                   String accessToken,
+                                                                   long deadline) {
+        try {
+            var parse = startStage(CommandObservations.STAGE_PARSE);
+            Q request;
+            try {
+                request = objectMapper.readValue(message.getData(), handler.getRequestClass());
+            } finally {
+                parse.stop();
             }
+            // See parseAndHandleRequest
+            consumer.acknowledgeAsync(message);
+
+            // Chunks are sent asynchronously but in order, and at most STREAM_SEND_WINDOW chunks are waiting to be
+            // acknowledged by the broker at any time.  This limits the number of chunks that are held in memory.
+            var chunkCount = authorizeAndHandleStreamingRequest(userId, request, accessToken, deadline)
+                    .index()
+                    .map(chunk -> sendChunk(replyChannel, correlationId, userId, chunk.getT1(), chunk.getT2()))
+                    .concatMap(Mono::fromFuture, STREAM_SEND_WINDOW)
+                    .count();
+            return subscribeInFlight(correlationId, userId, chunkCount,
+                                     count -> replyWithStreamEnd(replyChannel, correlationId, userId, count),
+                                     throwable -> {
+                                         if (throwable instanceof CommandExecutionException ex) {
+                                             replyWithErrorResponse(replyChannel, correlationId, userId, ex.getStatus());
+                                         }
+                                         else {
+                                             replyWithInternalServerError(replyChannel, correlationId, userId, request, throwable);
+                                         }
+                                     });
 
         } catch (IOException e) {
-            logger.error("Could not parse request", e);
+            logger.error("Could not parse streaming request", e);
             consumer.negativeAcknowledge(message);
             replyWithErrorResponse(replyChannel, correlationId, userId, HttpStatus.BAD_REQUEST);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Subscribes to the response to a request and records the subscription, under the correlation id of the request,
+     * until the response completes.  This allows the subscription to be disposed if a cancel notice is received for
+     * the request.
+     * @return A future that completes when the response completes, or the subscription is disposed
+     */
+    private <T> CompletableFuture<Void> subscribeInFlight(String correlationId,
+                                                          String userId,
+                                                          Mono<T> response,
+                                                          java.util.function.Consumer<? super T> onSuccess,
+                                                          java.util.function.Consumer<? super Throwable> onError) {
+        var inFlightRequest = new InFlightRequest(userId, Disposables.swap());
+        inFlightRequests.put(correlationId, inFlightRequest);
+        var completion = new CompletableFuture<Void>();
+        var observation = Observation.start(CommandObservations.HANDLE, observationRegistry)
+                                     .lowCardinalityKeyValue(CommandObservations.CHANNEL, handler.getChannelName());
+        var subscription = response.doOnSuccess(r -> CommandObservations.stop(observation, null))
+                                   .doOnError(throwable -> CommandObservations.stop(observation, throwable))
+                                   .doOnCancel(() -> CommandObservations.stop(observation, new CancellationException()))
+                                   .doFinally(signal -> {
+                                       inFlightRequests.remove(correlationId, inFlightRequest);
+                                       completion.complete(null);
+                                   })
+                                   .subscribe(onSuccess, throwable -> {
+                                       if (throwable instanceof RequestExpiredException) {
+                                           // The caller has given up on the request, so there is no point replying
+                                           dropExpiredRequest(correlationId);
+                                       }
+                                       else {
+                                           onError.accept(throwable);
+                                       }
+                                   });
+        inFlightRequest.subscription().update(subscription);
+        return completion;
+    }
+
+    /**
+     * Stops handling a request because the caller is no longer interested in the reply.  Cancel notices for
+     * requests that are not in flight here (because they have completed, or are being handled by another consumer)
+     * are ignored.  No reply is sent for a cancelled request.
+     */
+    private void handleCancelNotice(String correlationId, String userId) {
+        var inFlightRequest = inFlightRequests.get(correlationId);
+        if (inFlightRequest == null) {
+            logger.debug("Received cancel notice for request {}, which is not in flight.  Ignoring notice.", correlationId);
+            return;
+        }
+        if (!inFlightRequest.userId().equals(userId)) {
+            logger.warn("Received cancel notice for request {} from a user that did not send the request.  Ignoring notice.",
+                        correlationId);
+            return;
+        }
+        if (inFlightRequests.remove(correlationId, inFlightRequest)) {
+            logger.debug("Cancelling request {}", correlationId);
+            inFlightRequest.subscription().dispose();
+        }
+    }
+
+    /**
+     * Authorizes a request, if the handler requires authorization, and then handles it.  Authorization failures,
+     * and errors when requesting the authorization status, are signalled as {@link CommandExecutionException}s.
+     */
+    private Mono<R> authorizeAndHandleRequest(String userId, Q request, String accessToken, long deadline) {
+        var response = checkDeadline(deadline).then(Mono.defer(() -> handleRequest(userId, request, accessToken)));
+        if (handler instanceof AuthorizedCommandHandler<Q, R> authorizedCommandHandler) {
+            return checkDeadline(deadline)
+                    .then(authorizeRequestOnHandlerThread(userId, request, authorizedCommandHandler))
+                    .then(response);
+        }
+        else {
+            return response;
+        }
+    }
+
+    /**
+     * Authorizes a request, if the handler requires authorization, and then handles it, streaming the response if
+     * the handler is a {@link StreamingCommandHandler}.  The response of any other handler is a single chunk.
+     */
+    private Flux<R> authorizeAndHandleStreamingRequest(String userId, Q request, String accessToken, long deadline) {
+        if (!(handler instanceof StreamingCommandHandler<Q, R> streamingCommandHandler)) {
+            return authorizeAndHandleRequest(userId, request, accessToken, deadline).flux();
+        }
+        var executionContext = new ExecutionContext(new UserId(userId), accessToken);
+        var response = checkDeadline(deadline)
+                .thenMany(Flux.defer(() -> streamingCommandHandler.handleStreamingRequest(request, executionContext))
+                              .transform(chunks -> observeStage(CommandObservations.STAGE_HANDLER, chunks)));
+        if (handler instanceof AuthorizedCommandHandler<Q, R> authorizedCommandHandler) {
+            return checkDeadline(deadline)
+                    .then(authorizeRequestOnHandlerThread(userId, request, authorizedCommandHandler))
+                    .thenMany(response);
+        }
+        else {
+            return response;
         }
     }
 
-    private void authorizeAndReplyToRequest(String replyChannel,
-                                            String correlationId,
-                                            String userId,
-                                            Q request,
-                                            AuthorizedCommandHandler<Q, R> authenticatingCommandHandler,
-                                            String accessToken) {
+    /**
+     * Authorizes a request.  The authorization status arrives on a reply listener thread, so, if this handler has its
+     * own executor, the request is handled after authorization on a thread from that executor.
+     */
+    private Mono<Void> authorizeRequestOnHandlerThread(String userId,
+                                                       Q request,
+                                                       AuthorizedCommandHandler<Q, R> authenticatingCommandHandler) {
+        var authorization = observeStage(CommandObservations.STAGE_AUTHORIZATION,
+                                         authorizeRequest(userId, request, authenticatingCommandHandler));
+        if (handlerScheduler == null) {
+            return authorization;
+        }
+        return authorization.publishOn(handlerScheduler)
+                            .onErrorMap(RejectedExecutionException.class,
+                                        e -> new CommandExecutionException(HttpStatus.SERVICE_UNAVAILABLE));
+    }
+
+    private Mono<Void> authorizeRequest(String userId,
+                                        Q request,
+                                        AuthorizedCommandHandler<Q, R> authenticatingCommandHandler) {
         var resource = authenticatingCommandHandler.getTargetResource(request);
         var subject = Subject.forUser(userId);
-        var requiredActionId = authenticatingCommandHandler.getRequiredCapabilities();
-        // Call to the authorization service to check
-        var authRequest = new GetAuthorizationStatusRequest(resource,
-                                                            subject,
-                                                            requiredActionId.stream().findFirst().orElse(null));
         var executionContext = new ExecutionContext(new UserId(userId), "");
-        var authResponseFuture = authorizationStatusExecutor.execute(authRequest, executionContext);
-        authResponseFuture.whenComplete((authResponse, authError) -> {
-            if (authError != null) {
-                // The call to the authorization service failed
-                logger.warn("An error occurred when requesting the authorization status for {} on {}. Error: {}",
-                            userId,
-                            resource,
-                            authError.getMessage());
-                // Upstream Error
-                replyWithErrorResponse(replyChannel, correlationId, userId, HttpStatus.INTERNAL_SERVER_ERROR);
-            }
-            else {
-                // The call to the authorization service succeeded
-                if (authResponse.authorizationStatus() == AuthorizationStatus.AUTHORIZED) {
-                    handleAndReplyToRequest(replyChannel, correlationId, userId, request, accessToken);
-                }
-                else {
-                    logger.info("Permission denied when attempting to execute a request.  User: {}, Request: {}",
-                                userId,
-                                request);
-                    replyWithErrorResponse(replyChannel, correlationId, userId, HttpStatus.FORBIDDEN);
-                }
-            }
+        var requiredActionIds = authenticatingCommandHandler.getRequiredCapabilities();
+        // One call to the authorization service gets all of the actions that the subject may perform on the
+        // resource.  The request is authorized if all of the required capabilities are among them.
+        var authRequest = new GetAuthorizedActionsRequest(resource, subject);
+        return Mono.fromFuture(() -> authorizationStatusCache.get(authRequest, executionContext, authorizedActionsExecutor))
+                   .onErrorMap(authError -> {
+                       // The call to the authorization service failed
+                       logger.warn("An error occurred when requesting the authorization status for {} on {}. Error: {}",
+                                   userId,
+                                   resource,
+                                   authError.getMessage());
+                       // Upstream Error
+                       return new CommandExecutionException(HttpStatus.INTERNAL_SERVER_ERROR);
+                   })
+                   .flatMap(authResponse -> {
+                       // The call to the authorization service succeeded
+                       if (authResponse.actionIds().containsAll(requiredActionIds)) {
+                           return Mono.empty();
+                       }
+                       else {
+                           logger.info("Permission denied when attempting to execute a request.  User: {}, Request: {}",
+                                       userId,
+                                       describeRequest(request));
+                           return Mono.error(new CommandExecutionException(HttpStatus.FORBIDDEN));
+                       }
+                   });
+    }
+
+    private Observation startStage(String stage) {
+        return CommandObservations.startStage(stage, handler.getChannelName(), observationRegistry);
+    }
 
+    private <T> Mono<T> observeStage(String stage, Mono<T> mono) {
+        return Mono.defer(() -> {
+            var observation = startStage(stage);
+            return mono.doOnError(observation::error)
+                       .doFinally(signal -> observation.stop());
         });
     }
 
-    private void handleAndReplyToRequest(String replyChannel, String correlationId, String userId, Q request, String accessToken) {
+    private <T> Flux<T> observeStage(String stage, Flux<T> flux) {
+        return Flux.defer(() -> {
+            var observation = startStage(stage);
+            return flux.doOnError(observation::error)
+                       .doFinally(signal -> observation.stop());
+        });
+    }
+
+    private byte[] serialize(Object value) throws JsonProcessingException {
+        var observation = startStage(CommandObservations.STAGE_SERIALIZE);
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } finally {
+            observation.stop();
+        }
+    }
+
+    /**
+     * Gets the deadline of a request from its {@link Headers#DEADLINE} header
+     * @return The deadline, in milliseconds since the epoch, or {@link #NO_DEADLINE} if the request does not have a
+     * deadline, or expired requests are not dropped
+     */
+    private long getDeadline(Message<byte[]> message) {
+        var deadline = message.getProperty(DEADLINE);
+        if (!dropExpiredRequests || deadline == null) {
+            return NO_DEADLINE;
+        }
+        try {
+            return Long.parseLong(deadline);
+        } catch (NumberFormatException e) {
+            logger.warn("Malformed {} header: {}.  Ignoring deadline.", DEADLINE, deadline);
+            return NO_DEADLINE;
+        }
+    }
+
+    private static boolean isExpired(long deadline) {
+        return deadline != NO_DEADLINE && System.currentTimeMillis() > deadline;
+    }
+
+    private static Mono<Void> checkDeadline(long deadline) {
+        if (deadline == NO_DEADLINE) {
+            return Mono.empty();
+        }
+        return Mono.defer(() -> isExpired(deadline) ? Mono.error(new RequestExpiredException()) : Mono.empty());
+    }
+
+    private void dropExpiredRequest(String correlationId) {
+        expiredRequestCount.increment();
+        logger.debug("Dropping request {} on channel {} because its deadline has passed", correlationId, handler.getChannelName());
+    }
+
+    private Mono<R> handleRequest(String userId, Q request, String accessToken) {
         var executionContext = new ExecutionContext(new UserId(userId), accessToken);
         try {
-            var response = handler.handleRequest(request, executionContext);
-            response.subscribe(r -> {
-                replyWithSuccessResponse(replyChannel, correlationId, userId, r);
-                logger.info("Sent reply correlationId {} to {}",correlationId, replyChannel);
-            }, throwable -> {
-                if (throwable instanceof CommandExecutionException ex) {
-                    logger.info(
-                            "The command handler threw a CommandExecutionException exception while handling a request.  Sending an error as the reply to {}.  Code: {}, Message: {},  Request: {}",
-                            replyChannel,
-                            ex.getStatusCode(),
-                            throwable.getMessage(),
-                            request);
-                    replyWithErrorResponse(replyChannel, correlationId, userId, ex.getStatus());
-                }
-                else {
-                    replyWithInternalServerError(replyChannel, correlationId, userId, request, throwable);
-                }
-            });
+            return observeStage(CommandObservations.STAGE_HANDLER, handler.handleRequest(request, executionContext))
+                          .doOnError(CommandExecutionException.class, ex -> logger.info(
+                                  "The command handler threw a CommandExecutionException exception while handling a request.  Code: {}, Message: {},  Request: {}",
+                                  ex.getStatusCode(),
+                                  ex.getMessage(),
+                                  describeRequest(request)));
         } catch (Throwable throwable) {
             logger.error("Uncaught exception when handling request", throwable);
-            replyWithInternalServerError(replyChannel, correlationId, userId, request, throwable);
+            return Mono.error(throwable);
+        }
+    }
+
+    /**
+     * Describes a request for logging.  The request itself, including its payload, is only logged at TRACE level.
+     */
+    private Object describeRequest(Q request) {
+        return logger.isTraceEnabled() ? request : request.getClass().getSimpleName();
+    }
+
+    private HttpStatus getErrorStatus(Q request, Throwable throwable) {
+        if (throwable instanceof CommandExecutionException ex) {
+            return ex.getStatus();
         }
+        logger.info(
+                "The command handler threw an exception while handling a request in a batch.  Exception class: {}, Message: {},  Request: {}",
+                throwable.getClass().getName(),
+                throwable.getMessage(),
+                describeRequest(request));
+        return HttpStatus.INTERNAL_SERVER_ERROR;
     }
 
     private void replyWithInternalServerError(String replyChannel, String correlationId, String userId, Q request, Throwable throwable) {
@@ -255,7 +997,7 @@ public class PulsarCommandHandlerWrapper<Q extends Request<R>, R extends Respons
                 replyChannel,
                 throwable.getClass().getName(),
                 throwable.getMessage(),
-                request);
+                describeRequest(request));
         replyWithErrorResponse(replyChannel, correlationId, userId, HttpStatus.INTERNAL_SERVER_ERROR);
     }
 
@@ -266,40 +1008,107 @@ public class PulsarCommandHandlerWrapper<Q extends Request<R>, R extends Respons
      */
     private void replyWithErrorResponse(String replyChannel, String correlationId, String userId, HttpStatus status) {
         try {
-            var replyTopicUrl = getReplyTopicUrl(replyChannel);
-            var replyProducer = producersManager.getProducer(replyTopicUrl);
             var executionException = new CommandExecutionException(status);
             var value = serializeCommandExecutionException(executionException);
-            replyProducer.newMessage()
-                    .property(Headers.CORRELATION_ID, correlationId)
-                    .property(USER_ID, userId)
-                    .property(ERROR, value)
-                    .send();
+            // Error replies carry the error in a header and have no value
+            var reply = replySender.newReply(replyChannel, handler.getChannelName(), correlationId, userId, 0)
+                                   .property(ERROR, value);
+            replySender.send(reply, handler.getChannelName(), correlationId);
+            // Overload and timeout errors are transient, so a redelivered request should be handled again
+            if (status != HttpStatus.SERVICE_UNAVAILABLE && status != HttpStatus.GATEWAY_TIMEOUT) {
+                completedReplyCache.put(correlationId, new CompletedReplyCache.CompletedReply(userId, Map.of(ERROR, value), null));
+            }
         } catch (Exception e){
-            logger.error("Am erroare ", e);
+            logger.error("Could not send reply to request {}", correlationId, e);
         }
     }
 
     private void replyWithSuccessResponse(String replyChannel, String correlationId, String userId, R response) {
         try {
-            var topicUrl = getReplyTopicUrl(replyChannel);
-            var producer = producersManager.getProducer(topicUrl);
-            var value = objectMapper.writeValueAsBytes(response);
-            logger.info("ALEX reply correlationId {} pe topic {} cu {}",correlationId, producer.getTopic(), objectMapper.writeValueAsString(response));
-            producer.newMessage()
-                    .property(Headers.CORRELATION_ID, correlationId)
-                    .property(USER_ID, userId)
-                    .value(value)
-                    .send();
+            var value = serialize(response);
+            if (logSampler.shouldLog(logger, handler.getChannelName())) {
+                logger.info("Sending reply to request {} on channel {} to {}", correlationId, handler.getChannelName(), replyChannel);
+            }
+            if (logger.isTraceEnabled()) {
+                logger.trace("Reply to request {}: {}", correlationId, new String(value, StandardCharsets.UTF_8));
+            }
+            var reply = replySender.newReply(replyChannel, handler.getChannelName(), correlationId, userId, value.length)
+                                   .value(value);
+            replySender.send(reply, handler.getChannelName(), correlationId)
+                       .whenComplete((messageId, error) -> replyWithErrorIfTooLarge(replyChannel, correlationId, userId, error));
+            completedReplyCache.put(correlationId, new CompletedReplyCache.CompletedReply(userId, Map.of(), value));
         } catch (JsonProcessingException e) {
             replyWithErrorResponse(replyChannel, correlationId, userId, HttpStatus.INTERNAL_SERVER_ERROR);
         } catch (Exception e){
-            logger.error("Am erroare ", e);
+            logger.error("Could not send reply to request {}", correlationId, e);
+        }
+    }
+
+    /**
+     * Replies with a {@link HttpStatus#PAYLOAD_TOO_LARGE} error if a reply could not be sent because it is larger
+     * than the maximum message size, so that the caller does not have to wait for the request to time out.
+     */
+    private void replyWithErrorIfTooLarge(String replyChannel, String correlationId, String userId, @Nullable Throwable sendError) {
+        var cause = sendError instanceof CompletionException && sendError.getCause() != null ? sendError.getCause() : sendError;
+        if (cause instanceof PulsarClientException.InvalidMessageException) {
+            logger.warn("Reply to request {} on channel {} is larger than the maximum message size.  Enable chunking to send large replies.",
+                        correlationId, handler.getChannelName());
+            replyWithErrorResponse(replyChannel, correlationId, userId, HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+    }
+
+    private void replayCompletedReply(String replyChannel, String correlationId, CompletedReplyCache.CompletedReply completedReply) {
+        var replySize = completedReply.value() != null ? completedReply.value().length : 0;
+        var reply = replySender.newReply(replyChannel, handler.getChannelName(), correlationId, completedReply.userId(), replySize)
+                               .properties(completedReply.properties());
+        if (completedReply.value() != null) {
+            reply.value(completedReply.value());
         }
+        replySender.send(reply, handler.getChannelName(), correlationId);
     }
 
-    private String getReplyTopicUrl(String replyChannel) {
-        return tenant + "/" + PulsarNamespaces.COMMAND_REPLIES + "/" + replyChannel;
+    private CompletableFuture<MessageId> sendChunk(String replyChannel,
+                                                   String correlationId,
+                                                   String userId,
+                                                   long sequenceNumber,
+                                                   R chunk) {
+        try {
+            var reply = replySender.newReply(replyChannel, handler.getChannelName(), correlationId, userId)
+                                   .property(STREAM, Long.toString(sequenceNumber))
+                                   .value(objectMapper.writeValueAsBytes(chunk));
+            return replySender.send(reply, handler.getChannelName(), correlationId);
+        } catch (JsonProcessingException e) {
+            logger.error("Could not serialize chunk {} of streamed response", sequenceNumber, e);
+            return CompletableFuture.failedFuture(new CommandExecutionException(HttpStatus.INTERNAL_SERVER_ERROR));
+        }
+    }
+
+    private void replyWithStreamEnd(String replyChannel, String correlationId, String userId, long chunkCount) {
+        try {
+            var reply = replySender.newReply(replyChannel, handler.getChannelName(), correlationId, userId)
+                                   .property(STREAM_END, Long.toString(chunkCount))
+                                   .value(new byte[0]);
+            replySender.send(reply, handler.getChannelName(), correlationId);
+        } catch (Exception e){
+            logger.error("Could not send reply to request {}", correlationId, e);
+        }
+    }
+
+    private void replyWithBatchResponse(String replyChannel, String correlationId, String userId, List<BatchReplyItem> items) {
+        try {
+            var value = serialize(items);
+            var properties = Map.of(BATCH, Integer.toString(items.size()));
+            var reply = replySender.newReply(replyChannel, handler.getChannelName(), correlationId, userId, value.length)
+                                   .properties(properties)
+                                   .value(value);
+            replySender.send(reply, handler.getChannelName(), correlationId)
+                       .whenComplete((messageId, error) -> replyWithErrorIfTooLarge(replyChannel, correlationId, userId, error));
+            completedReplyCache.put(correlationId, new CompletedReplyCache.CompletedReply(userId, properties, value));
+        } catch (JsonProcessingException e) {
+            replyWithErrorResponse(replyChannel, correlationId, userId, HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (Exception e){
+            logger.error("Could not send reply to request {}", correlationId, e);
+        }
     }
 
     private String getSubscriptionName(CommandHandler<?, ?> handler) {
@@ -312,9 +1121,22 @@ public class PulsarCommandHandlerWrapper<Q extends Request<R>, R extends Respons
 
     private String getRequestsTopicUrl(CommandHandler<?, ?> handler) {
         var channelName = handler.getChannelName();
-        String response = tenant + "/" + PulsarNamespaces.COMMAND_REQUESTS + "/" + channelName;
-        logger.info("ALEX getRequestsTopicUrl " + response);
-        return response;
+        return tenant + "/" + PulsarNamespaces.COMMAND_REQUESTS + "/" + channelName;
+    }
+
+    /**
+     * Signals that the deadline of a request passed before the request was handled.  Within a batch this is reported
+     * as a {@link HttpStatus#GATEWAY_TIMEOUT} error.
+     */
+    private static class RequestExpiredException extends CommandExecutionException {
+
+        private RequestExpiredException() {
+            super(HttpStatus.GATEWAY_TIMEOUT);
+        }
+    }
+
+    private record InFlightRequest(String userId, Disposable.Swap subscription) {
+
     }
 
     private String serializeCommandExecutionException(CommandExecutionException exception) {
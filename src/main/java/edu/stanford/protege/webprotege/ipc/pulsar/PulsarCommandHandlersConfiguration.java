@@ -26,6 +26,12 @@ public class PulsarCommandHandlersConfiguration {
     @Autowired
     private PulsarCommandHandlerWrapperFactory wrapperFactory;
 
+    @Autowired
+    private LocalCommandHandlers localCommandHandlers;
+
+    @Autowired
+    private CommandMetrics commandMetrics;
+
 
     @PostConstruct
     private void postConstruct() {
@@ -36,6 +42,8 @@ public class PulsarCommandHandlersConfiguration {
                             handler.getChannelName());
                 var wrapper = wrapperFactory.create(handler);
                 wrapper.subscribe();
+                localCommandHandlers.register(wrapper);
+                commandMetrics.bindHandler(wrapper);
         });
     }
 }
@@ -0,0 +1,133 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import org.apache.pulsar.client.api.CompressionType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides how the messages that are sent to a topic are compressed.  The compression type can be set for a channel
+ * (for example, {@code webprotege.events.ProjectChanged}), for a namespace (for example,
+ * {@link PulsarNamespaces#COMMAND_REPLIES}), or by default for all topics.  A channel setting takes precedence over a
+ * namespace setting, which takes precedence over the default.
+ * <p>
+ * A reply is compressed according to the setting for the channel of the request that it replies to, unless its reply
+ * channel has a setting of its own.  Reply channels are shared by many request channels when replies are addressed
+ * to instances, so setting the compression type for a request channel is the only way to set it for the replies to
+ * the requests on that channel.
+ * <p>
+ * Replies that are smaller than a minimum size are not compressed, because compressing a few hundred bytes costs CPU
+ * and saves little or nothing.  A reply is a single message, so it does not matter that a small reply and a large
+ * reply to the same reply channel are sent by different producers.  The minimum size does not apply to the chunks of
+ * streamed replies, which must be sent by one producer to keep their order, nor to requests and events, whose order
+ * per topic (or per key) is relied upon.
+ * <p>
+ * Compression is applied by the Pulsar producer to each batch of messages, and the compression type is recorded in
+ * the message metadata, so consumers decompress messages transparently whether or not they are compressed.  This
+ * means that compression can be turned on for producers one service at a time.
+ */
+public class PulsarCompressionPolicy {
+
+    private final CompressionType defaultCompressionType;
+
+    private final Map<String, CompressionType> compressionTypes;
+
+    private final int minReplySize;
+
+    /**
+     * Creates a compression policy that compresses replies of any size
+     * @param defaultCompressionType The compression type for topics that do not have their own compression type
+     * @param compressionTypes The compression types for specific channels or namespaces
+     */
+    public PulsarCompressionPolicy(CompressionType defaultCompressionType,
+                                   Map<String, CompressionType> compressionTypes) {
+        this(defaultCompressionType, compressionTypes, 0);
+    }
+
+    /**
+     * Creates a compression policy
+     * @param defaultCompressionType The compression type for topics that do not have their own compression type
+     * @param compressionTypes The compression types for specific channels or namespaces
+     * @param minReplySize The size, in bytes, below which replies are not compressed
+     */
+    public PulsarCompressionPolicy(CompressionType defaultCompressionType,
+                                   Map<String, CompressionType> compressionTypes,
+                                   int minReplySize) {
+        this.defaultCompressionType = defaultCompressionType;
+        this.compressionTypes = Map.copyOf(compressionTypes);
+        this.minReplySize = minReplySize;
+    }
+
+    /**
+     * Parses compression types for specific channels or namespaces
+     * @param compressionTypes A comma separated list of name=type pairs, where name is a channel name or a
+     *                         namespace, for example, {@code command-responses=LZ4,webprotege.events.ProjectChanged=ZSTD}
+     */
+    public static Map<String, CompressionType> parseCompressionTypes(String compressionTypes) {
+        var result = new HashMap<String, CompressionType>();
+        for (var entry : compressionTypes.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            var separator = entry.lastIndexOf('=');
+            if (separator == -1) {
+                throw new IllegalArgumentException("Malformed compression type: " + entry);
+            }
+            result.put(entry.substring(0, separator).trim(),
+                       CompressionType.valueOf(entry.substring(separator + 1).trim()));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the compression type for a reply that is sent as a single message
+     * @param replyTopicUrl The url of the reply topic, in the form tenant/namespace/channel
+     * @param requestChannel The channel of the request that is being replied to
+     * @param replySize The size of the reply, in bytes
+     */
+    public CompressionType getReplyCompressionType(String replyTopicUrl, String requestChannel, int replySize) {
+        if (replySize < minReplySize) {
+            return CompressionType.NONE;
+        }
+        return getReplyCompressionType(replyTopicUrl, requestChannel);
+    }
+
+    /**
+     * Gets the compression type for a reply, whatever its size.  This is the compression type for the chunks of
+     * streamed replies.
+     * @param replyTopicUrl The url of the reply topic, in the form tenant/namespace/channel
+     * @param requestChannel The channel of the request that is being replied to
+     */
+    public CompressionType getReplyCompressionType(String replyTopicUrl, String requestChannel) {
+        var replyChannel = replyTopicUrl.substring(replyTopicUrl.lastIndexOf('/') + 1);
+        if (!compressionTypes.containsKey(replyChannel)) {
+            var requestChannelCompressionType = compressionTypes.get(requestChannel);
+            if (requestChannelCompressionType != null) {
+                return requestChannelCompressionType;
+            }
+        }
+        return getCompressionType(replyTopicUrl);
+    }
+
+    /**
+     * Gets the compression type for a topic
+     * @param topicUrl The topic url, in the form tenant/namespace/channel
+     */
+    public CompressionType getCompressionType(String topicUrl) {
+        var channelSeparator = topicUrl.lastIndexOf('/');
+        var channel = topicUrl.substring(channelSeparator + 1);
+        var channelCompressionType = compressionTypes.get(channel);
+        if (channelCompressionType != null) {
+            return channelCompressionType;
+        }
+        if (channelSeparator > 0) {
+            var namespaceSeparator = topicUrl.lastIndexOf('/', channelSeparator - 1);
+            var namespace = topicUrl.substring(namespaceSeparator + 1, channelSeparator);
+            var namespaceCompressionType = compressionTypes.get(namespace);
+            if (namespaceCompressionType != null) {
+                return namespaceCompressionType;
+            }
+        }
+        return defaultCompressionType;
+    }
+}
@@ -76,7 +76,7 @@ public class PulsarEventDispatcher implements EventDispatcher {
                 messageBuilder.property(PROJECT_ID, projectId);
             }
             var messageId = messageBuilder.send();
-            logger.info("Sent event message: {}", messageId);
+            logger.debug("Sent event message: {}", messageId);
         } catch (JsonProcessingException e) {
             logger.info("Could not serialize event: {}", e.getMessage(), e);
         } catch (PulsarClientException e) {
@@ -101,7 +101,7 @@ public class PulsarEventDispatcher implements EventDispatcher {
                 messageBuilder.property(PROJECT_ID, record.projectId().value());
             }
             var messageId = messageBuilder.send();
-            logger.info("Sent event record message: {}", messageId);
+            logger.debug("Sent event record message: {}", messageId);
         } catch (JsonProcessingException e) {
             logger.info("Could not serialize event: {}", e.getMessage(), e);
         } catch (PulsarClientException e) {
@@ -28,12 +28,14 @@ public class PulsarProducersManager {
 
     private final String applicationName;
 
-    private final Cache<String, Producer<byte[]>> cache = Caffeine.newBuilder()
-                                                                  .expireAfterAccess(5, TimeUnit.MINUTES)
-                                                                  .removalListener(this::handleProducerRemoved)
-                                                                  .build();
+    private final PulsarCompressionPolicy compressionPolicy;
 
-    private void handleProducerRemoved(@Nullable String topicUrl,
+    private final Cache<ProducerKey, Producer<byte[]>> cache = Caffeine.newBuilder()
+                                                                       .expireAfterAccess(5, TimeUnit.MINUTES)
+                                                                       .removalListener(this::handleProducerRemoved)
+                                                                       .build();
+
+    private void handleProducerRemoved(@Nullable ProducerKey key,
                                        @Nullable Producer<byte[]> producer,
                                        @NonNull RemovalCause removalCause) {
         if (producer != null) {
@@ -42,9 +44,11 @@ public class PulsarProducersManager {
     }
 
     public PulsarProducersManager(PulsarClient pulsarClient,
-                                  @Value("${spring.application.name}") String applicationName) {
+                                  @Value("${spring.application.name}") String applicationName,
+                                  PulsarCompressionPolicy compressionPolicy) {
         this.pulsarClient = pulsarClient;
         this.applicationName = applicationName;
+        this.compressionPolicy = compressionPolicy;
     }
 
     public Producer<byte[]> getProducer(String topicUrl) {
@@ -53,13 +57,25 @@ public class PulsarProducersManager {
 
     public Producer<byte[]> getProducer(String topicUrl,
                                         java.util.function.Consumer<ProducerBuilder<byte[]>> producerCustomizer) {
-        return cache.get(topicUrl, u -> createProducer(u, producerCustomizer));
+        return getProducer(topicUrl, compressionPolicy.getCompressionType(topicUrl), producerCustomizer);
+    }
+
+    /**
+     * Gets a producer that compresses messages with the specified compression type, rather than with the type that
+     * the compression policy sets for the topic.  Producers for the same topic with different compression types are
+     * distinct producers.
+     */
+    public Producer<byte[]> getProducer(String topicUrl,
+                                        CompressionType compressionType,
+                                        java.util.function.Consumer<ProducerBuilder<byte[]>> producerCustomizer) {
+        return cache.get(new ProducerKey(topicUrl, compressionType), key -> createProducer(key, producerCustomizer));
     }
 
-    private Producer<byte[]> createProducer(String topicUrl, java.util.function.Consumer<ProducerBuilder<byte[]>> producerCustomizer) {
+    private Producer<byte[]> createProducer(ProducerKey key, java.util.function.Consumer<ProducerBuilder<byte[]>> producerCustomizer) {
         try {
             var producerBuilder = pulsarClient.newProducer()
-                                              .topic(topicUrl);
+                                              .topic(key.topicUrl())
+                                              .compressionType(key.compressionType());
             producerCustomizer.accept(producerBuilder);
             return producerBuilder.create();
         } catch (PulsarClientException e) {
@@ -67,4 +83,8 @@ public class PulsarProducersManager {
             throw new UncheckedIOException(e);
         }
     }
+
+    private record ProducerKey(String topicUrl, CompressionType compressionType) {
+
+    }
 }
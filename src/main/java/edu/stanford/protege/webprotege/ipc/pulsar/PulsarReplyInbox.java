@@ -0,0 +1,394 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.stanford.protege.webprotege.ipc.CommandExecutionException;
+import edu.stanford.protege.webprotege.ipc.Headers;
+import io.netty.util.Timeout;
+import org.apache.pulsar.client.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The reply inbox that is shared by all {@link PulsarCommandExecutor}s in a process.  Executors register a pending
+ * reply, along with a decoder for the expected response, under the correlation id of each request that they send.
+ * Replies are received by the inbox and are routed, by correlation id, to the pending reply.
+ * <p>
+ * With {@link ReplyAddressingMode#INSTANCE} addressing all replies for the process arrive on one reply channel that
+ * is read by a single consumer.  With {@link ReplyAddressingMode#SHARED} addressing there is one consumer per shared
+ * reply channel.  Either way, the number of reply consumers does not depend on the number of executors.
+ */
+public class PulsarReplyInbox {
+
+    private static final Logger logger = LoggerFactory.getLogger(PulsarReplyInbox.class);
+
+    private final String applicationName;
+
+    private final String tenant;
+
+    private final PulsarClient pulsarClient;
+
+    private final ObjectMapper objectMapper;
+
+    private final CommandTimeoutTimer timeoutTimer;
+
+    private final ReplyAddressingMode replyAddressingMode;
+
+    private final ChunkingSettings chunkingSettings;
+
+    private final int streamBufferSize;
+
+    private final String instanceReplyChannel;
+
+    private final Map<String, Consumer<byte[]>> consumers = new ConcurrentHashMap<>();
+
+    private final Map<String, PendingReply<?>> pendingReplies = new ConcurrentHashMap<>();
+
+    private final Map<String, PendingStream<?>> pendingStreams = new ConcurrentHashMap<>();
+
+    private final CorrelationIdGenerator correlationIdGenerator = new CorrelationIdGenerator();
+
+    public PulsarReplyInbox(String applicationName,
+                            String tenant,
+                            PulsarClient pulsarClient,
+                            ObjectMapper objectMapper,
+                            CommandTimeoutTimer timeoutTimer,
+                            ReplyAddressingMode replyAddressingMode,
+                            ChunkingSettings chunkingSettings,
+                            int streamBufferSize) {
+        this.applicationName = applicationName;
+        this.tenant = tenant;
+        this.pulsarClient = pulsarClient;
+        this.objectMapper = objectMapper;
+        this.timeoutTimer = timeoutTimer;
+        this.replyAddressingMode = replyAddressingMode;
+        this.chunkingSettings = chunkingSettings;
+        this.streamBufferSize = streamBufferSize;
+        this.instanceReplyChannel = applicationName + "--replies--" + UUID.randomUUID();
+    }
+
+    /**
+     * Gets the channel that replies to requests sent on the specified request channel should be sent to.  A
+     * consumer is listening on the returned channel by the time this method returns.
+     * @param requestChannel The request channel
+     * @return The reply channel
+     */
+    public String getReplyChannel(String requestChannel) {
+        var replyChannel = replyAddressingMode == ReplyAddressingMode.SHARED ? requestChannel + "--replies" : instanceReplyChannel;
+        ensureConsumerIsListeningForReplies(replyChannel);
+        return replyChannel;
+    }
+
+    /**
+     * Gets a new correlation id for a request.  Correlation ids are unique within the process and, with
+     * overwhelming probability, across processes.
+     */
+    public String nextCorrelationId() {
+        return correlationIdGenerator.next();
+    }
+
+    /**
+     * Registers a pending reply.  If a reply is not received within the specified timeout then the returned future
+     * is completed with a {@link CommandExecutionException} that has a status of
+     * {@link HttpStatus#GATEWAY_TIMEOUT}.  If the returned future is cancelled then the pending reply is removed.
+     * @param correlationId The correlation id of the request
+     * @param responseClass The class of the expected response
+     * @param timeout The timeout
+     * @return A future that is completed when the reply is received
+     */
+    public <R> CompletableFuture<R> register(String correlationId, Class<R> responseClass, Duration timeout) {
+        return register(correlationId, data -> objectMapper.readValue(data, responseClass), timeout);
+    }
+
+    /**
+     * Registers a pending reply whose payload is decoded by the specified decoder.  See
+     * {@link #register(String, Class, Duration)}.
+     */
+    public <R> CompletableFuture<R> register(String correlationId, ReplyDecoder<R> decoder, Duration timeout) {
+        var replyFuture = new CompletableFuture<R>();
+        pendingReplies.put(correlationId, new PendingReply<>(decoder, replyFuture));
+        var replyTimeout = timeoutTimer.schedule(timeout, () -> expireReply(correlationId, timeout));
+        replyFuture.whenComplete((r, e) -> {
+            replyTimeout.cancel();
+            if (replyFuture.isCancelled()) {
+                // The caller is no longer interested in the reply
+                pendingReplies.remove(correlationId);
+            }
+        });
+        return replyFuture;
+    }
+
+    /**
+     * Registers a pending streamed reply.  A streamed reply consists of a sequence of chunk messages, each of which
+     * has a {@link Headers#STREAM} header that holds its sequence number, followed by a message with a
+     * {@link Headers#STREAM_END} header.  The chunks are decoded and emitted, in order, by the returned {@link Flux}.
+     * Chunks that are received before the {@link Flux} is subscribed to, or faster than the subscriber requests them,
+     * are buffered.  The buffer holds at most {@code streamBufferSize} chunks, so that a slow subscriber cannot
+     * cause the whole response to be held in memory.  If the buffer overflows then the returned {@link Flux} fails
+     * with a {@link CommandExecutionException} that has a status of {@link HttpStatus#SERVICE_UNAVAILABLE}.
+     * <p>
+     * If no chunk is received within the specified timeout then the returned {@link Flux} fails with a
+     * {@link CommandExecutionException} that has a status of {@link HttpStatus#GATEWAY_TIMEOUT}.  If a chunk is
+     * missing then it fails with a status of {@link HttpStatus#INTERNAL_SERVER_ERROR}.  If the subscription to the
+     * returned {@link Flux} is cancelled then the pending streamed reply is removed.
+     * @param correlationId The correlation id of the request
+     * @param decoder The decoder for the payload of each chunk
+     * @param idleTimeout The maximum time to wait for each chunk
+     * @return The stream of decoded chunks
+     */
+    public <R> Flux<R> registerStream(String correlationId, ReplyDecoder<R> decoder, Duration idleTimeout) {
+        var pendingStream = new PendingStream<>(correlationId, decoder, idleTimeout);
+        pendingStreams.put(correlationId, pendingStream);
+        pendingStream.scheduleTimeout();
+        return pendingStream.sink.asFlux()
+                                 .doOnCancel(() -> {
+                                     pendingStreams.remove(correlationId, pendingStream);
+                                     pendingStream.cancelTimeout();
+                                 });
+    }
+
+    /**
+     * Removes a pending reply and completes it exceptionally.  This is used when a request could not be sent.
+     * @param correlationId The correlation id of the request
+     * @param error The error to complete the pending reply with
+     */
+    public void fail(String correlationId, Throwable error) {
+        var pendingReply = pendingReplies.remove(correlationId);
+        if (pendingReply != null) {
+            pendingReply.future().completeExceptionally(error);
+        }
+        var pendingStream = pendingStreams.get(correlationId);
+        if (pendingStream != null) {
+            pendingStream.fail(error);
+        }
+    }
+
+    /**
+     * Gets the number of replies, including streamed replies, that are pending
+     */
+    public int getPendingReplyCount() {
+        return pendingReplies.size() + pendingStreams.size();
+    }
+
+    private void expireReply(String correlationId, Duration timeout) {
+        var pendingReply = pendingReplies.remove(correlationId);
+        if (pendingReply != null) {
+            logger.warn("No reply received for request {} within {} ms.  Timing out request.",
+                        correlationId,
+                        timeout.toMillis());
+            pendingReply.future().completeExceptionally(new CommandExecutionException(HttpStatus.GATEWAY_TIMEOUT));
+        }
+    }
+
+    private void ensureConsumerIsListeningForReplies(String replyChannel) {
+        consumers.computeIfAbsent(replyChannel, this::subscribeToReplies);
+    }
+
+    private Consumer<byte[]> subscribeToReplies(String replyChannel) {
+        try {
+            var replyTopic = "persistent://" + tenant + "/" + PulsarNamespaces.COMMAND_REPLIES + "/" + replyChannel;
+            // With shared addressing, replies go to all instances of our application/service.  In other words we
+            // have a pub/sub situation.  In this case we need unique subscription names with exclusive subscriptions
+            // for each consumer.  With instance addressing the reply topic belongs to this process, but a unique
+            // exclusive subscription is still what we want.
+            var replySubscriptionName = applicationName + "--" + replyChannel + "--" + UUID.randomUUID();
+            logger.info("Setting up consumer with subscription {} to listen for replies at {}",
+                        replySubscriptionName,
+                        replyTopic);
+            var consumerBuilder = pulsarClient.newConsumer()
+                                              .subscriptionName(replySubscriptionName)
+                                              .subscriptionType(SubscriptionType.Exclusive)
+                                              .topic(replyTopic)
+                                              .messageListener(this::handleReplyMessageReceived);
+            chunkingSettings.configure(consumerBuilder);
+            return consumerBuilder.subscribe();
+        } catch (PulsarClientException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void handleReplyMessageReceived(Consumer<byte[]> consumer, Message<byte[]> msg) {
+        try {
+            var correlationId = msg.getProperty(Headers.CORRELATION_ID);
+            if (correlationId == null) {
+                logger.info("CorrelationId in reply message is missing.  Cannot handle reply.  Ignoring reply.");
+                consumer.acknowledge(msg);
+                return;
+            }
+            var pendingStream = pendingStreams.get(correlationId);
+            if (pendingStream != null) {
+                pendingStream.handleReply(msg);
+                consumer.acknowledge(msg);
+                return;
+            }
+            var pendingReply = pendingReplies.get(correlationId);
+            if (pendingReply == null) {
+                // Either the request has timed out or it was sent by a different process
+                logger.debug("No pending request for reply with correlationId {}.  Ignoring reply.", correlationId);
+                consumer.acknowledge(msg);
+                return;
+            }
+            var error = msg.getProperty(Headers.ERROR);
+            if (error != null) {
+                var executionException = objectMapper.readValue(error, CommandExecutionException.class);
+                consumer.acknowledge(msg);
+                if (pendingReplies.remove(correlationId, pendingReply)) {
+                    pendingReply.future().completeExceptionally(executionException);
+                }
+            }
+            else {
+                completeReply(correlationId, pendingReply, msg.getData());
+                consumer.acknowledge(msg);
+            }
+        } catch (PulsarClientException e) {
+            logger.error("Encountered Pulsar Client Exception", e);
+            throw new UncheckedIOException(e);
+        } catch (IOException e) {
+            logger.error("Cannot deserialize reply message on topic {}", consumer.getTopic(), e);
+            consumer.negativeAcknowledge(msg);
+        } catch (Exception e) {
+            logger.error("Unknown error {}", consumer.getTopic(), e);
+            consumer.negativeAcknowledge(msg);
+        }
+    }
+
+    private <R> void completeReply(String correlationId, PendingReply<R> pendingReply, byte[] data) throws IOException {
+        var response = pendingReply.decoder().decode(data);
+        if (pendingReplies.remove(correlationId, pendingReply)) {
+            pendingReply.future().complete(response);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        consumers.values().forEach(consumer -> {
+            logger.info("Closing consumer listening to {}", consumer.getConsumerName());
+            consumer.unsubscribeAsync();
+            consumer.closeAsync();
+        });
+        consumers.clear();
+    }
+
+    /**
+     * Decodes the payload of a reply message
+     */
+    public interface ReplyDecoder<R> {
+
+        R decode(byte[] data) throws IOException;
+    }
+
+    private record PendingReply<R>(ReplyDecoder<R> decoder, CompletableFuture<R> future) {
+
+    }
+
+    /**
+     * A streamed reply that is pending.  Chunks are received on the consumer's listener thread, whereas timeouts fire
+     * on the timer thread, so all signals to the sink are made while holding the lock on this object.
+     */
+    private class PendingStream<R> {
+
+        private final String correlationId;
+
+        private final ReplyDecoder<R> decoder;
+
+        private final Duration idleTimeout;
+
+        private final Sinks.Many<R> sink = Sinks.many().unicast().onBackpressureBuffer(Queues.<R>get(streamBufferSize).get());
+
+        private long nextSequenceNumber = 0;
+
+        private Timeout timeout;
+
+        private PendingStream(String correlationId, ReplyDecoder<R> decoder, Duration idleTimeout) {
+            this.correlationId = correlationId;
+            this.decoder = decoder;
+            this.idleTimeout = idleTimeout;
+        }
+
+        private synchronized void scheduleTimeout() {
+            timeout = timeoutTimer.schedule(idleTimeout, this::expire);
+        }
+
+        private synchronized void cancelTimeout() {
+            timeout.cancel();
+        }
+
+        private void expire() {
+            logger.warn("No reply chunk received for streamed request {} within {} ms.  Timing out request.",
+                        correlationId,
+                        idleTimeout.toMillis());
+            fail(new CommandExecutionException(HttpStatus.GATEWAY_TIMEOUT));
+        }
+
+        private synchronized void handleReply(Message<byte[]> msg) throws IOException {
+            if (!pendingStreams.containsKey(correlationId)) {
+                return;
+            }
+            var error = msg.getProperty(Headers.ERROR);
+            if (error != null) {
+                fail(objectMapper.readValue(error, CommandExecutionException.class));
+                return;
+            }
+            var streamEnd = msg.getProperty(Headers.STREAM_END);
+            if (streamEnd != null) {
+                if (Long.parseLong(streamEnd) != nextSequenceNumber) {
+                    logger.error("Streamed reply {} ended after {} chunks but {} chunks were sent",
+                                 correlationId,
+                                 nextSequenceNumber,
+                                 streamEnd);
+                    fail(new CommandExecutionException(HttpStatus.INTERNAL_SERVER_ERROR));
+                    return;
+                }
+                pendingStreams.remove(correlationId, this);
+                timeout.cancel();
+                sink.tryEmitComplete();
+                return;
+            }
+            var sequenceNumber = msg.getProperty(Headers.STREAM);
+            if (sequenceNumber == null || Long.parseLong(sequenceNumber) != nextSequenceNumber) {
+                logger.error("Expected chunk {} of streamed reply {} but received chunk {}",
+                             nextSequenceNumber,
+                             correlationId,
+                             sequenceNumber);
+                fail(new CommandExecutionException(HttpStatus.INTERNAL_SERVER_ERROR));
+                return;
+            }
+            R chunk;
+            try {
+                chunk = decoder.decode(msg.getData());
+            } catch (IOException e) {
+                logger.error("Cannot deserialize chunk {} of streamed reply {}", sequenceNumber, correlationId, e);
+                fail(new CommandExecutionException(HttpStatus.INTERNAL_SERVER_ERROR));
+                return;
+            }
+            nextSequenceNumber++;
+            timeout.cancel();
+            timeout = timeoutTimer.schedule(idleTimeout, this::expire);
+            if (sink.tryEmitNext(chunk) == Sinks.EmitResult.FAIL_OVERFLOW) {
+                logger.warn("More than {} chunks of streamed reply {} are waiting to be consumed.  Failing request.",
+                            streamBufferSize,
+                            correlationId);
+                fail(new CommandExecutionException(HttpStatus.SERVICE_UNAVAILABLE));
+            }
+        }
+
+        private synchronized void fail(Throwable error) {
+            if (pendingStreams.remove(correlationId, this)) {
+                timeout.cancel();
+                sink.tryEmitError(error);
+            }
+        }
+    }
+}
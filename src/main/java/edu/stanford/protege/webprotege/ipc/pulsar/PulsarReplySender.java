@@ -0,0 +1,161 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+import edu.stanford.protege.webprotege.ipc.Headers;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.apache.pulsar.client.api.CompressionType;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.TypedMessageBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends replies on behalf of the {@link PulsarCommandHandlerWrapper}s in a process.  Replies are sent asynchronously,
+ * so that handler threads do not wait for the broker to acknowledge each reply, and reply producers batch the
+ * replies that are sent within a short delay of each other into a single publish.  Pulsar does not allow chunking
+ * and batching on the same producer, so replies are not batched if chunking is enabled.  Replies that are sent to the
+ * same reply channel, for requests on the same channel, are published in the order in which they are sent.
+ * <p>
+ * Replies are compressed according to the channel of the request that they reply to (see
+ * {@link PulsarCompressionPolicy#getReplyCompressionType(String, String)}).  Replies that are sent as a single message
+ * and are smaller than the minimum reply size of the compression policy are sent uncompressed, by a second producer
+ * for the reply channel.
+ */
+public class PulsarReplySender {
+
+    private static final Logger logger = LoggerFactory.getLogger(PulsarReplySender.class);
+
+    private final String tenant;
+
+    private final PulsarProducersManager producersManager;
+
+    private final Duration batchingMaxPublishDelay;
+
+    private final ObservationRegistry observationRegistry;
+
+    private final ChunkingSettings chunkingSettings;
+
+    private final PulsarCompressionPolicy compressionPolicy;
+
+    private final LongAdder sentReplyCount = new LongAdder();
+
+    private final LongAdder failedReplyCount = new LongAdder();
+
+    /**
+     * Creates a reply sender
+     * @param tenant The Pulsar tenant
+     * @param producersManager The producers manager that holds the reply producers
+     * @param batchingMaxPublishDelay The maximum time that a reply waits to be batched with other replies
+     * @param observationRegistry The registry for observations of reply sends
+     * @param chunkingSettings The settings for replies that are larger than the maximum message size
+     * @param compressionPolicy The policy that decides how replies are compressed
+     */
+    public PulsarReplySender(String tenant,
+                             PulsarProducersManager producersManager,
+                             Duration batchingMaxPublishDelay,
+                             ObservationRegistry observationRegistry,
+                             ChunkingSettings chunkingSettings,
+                             PulsarCompressionPolicy compressionPolicy) {
+        this.tenant = tenant;
+        this.producersManager = producersManager;
+        this.batchingMaxPublishDelay = batchingMaxPublishDelay;
+        this.observationRegistry = observationRegistry;
+        this.chunkingSettings = chunkingSettings;
+        this.compressionPolicy = compressionPolicy;
+        if (chunkingSettings.enabled()) {
+            logger.info("Chunking is enabled.  Replies are not batched and the reply batching delay of {} is not used.", batchingMaxPublishDelay);
+        }
+    }
+
+    /**
+     * Creates a reply message that is one of a sequence of messages for a request, such as a chunk of a streamed
+     * reply.  All messages in the sequence are sent by the same producer, so they arrive in the order in which they
+     * are sent.
+     * @param replyChannel The channel to send the reply to
+     * @param requestChannel The channel of the request that is being replied to
+     * @param correlationId The correlation id of the request that is being replied to
+     * @param userId The user that sent the request
+     * @return A builder for the reply message
+     */
+    public TypedMessageBuilder<byte[]> newReply(String replyChannel, String requestChannel, String correlationId, String userId) {
+        var topicUrl = getTopicUrl(replyChannel);
+        return newReply(topicUrl, compressionPolicy.getReplyCompressionType(topicUrl, requestChannel), correlationId, userId);
+    }
+
+    /**
+     * Creates a reply message that is the only message that is sent in reply to a request
+     * @param replyChannel The channel to send the reply to
+     * @param requestChannel The channel of the request that is being replied to
+     * @param correlationId The correlation id of the request that is being replied to
+     * @param userId The user that sent the request
+     * @param replySize The size of the value of the reply, in bytes, which decides whether it is compressed
+     * @return A builder for the reply message
+     */
+    public TypedMessageBuilder<byte[]> newReply(String replyChannel, String requestChannel, String correlationId, String userId, int replySize) {
+        var topicUrl = getTopicUrl(replyChannel);
+        return newReply(topicUrl, compressionPolicy.getReplyCompressionType(topicUrl, requestChannel, replySize), correlationId, userId);
+    }
+
+    private String getTopicUrl(String replyChannel) {
+        return tenant + "/" + PulsarNamespaces.COMMAND_REPLIES + "/" + replyChannel;
+    }
+
+    private TypedMessageBuilder<byte[]> newReply(String topicUrl, CompressionType compressionType, String correlationId, String userId) {
+        var producer = producersManager.getProducer(topicUrl, compressionType, producerBuilder -> {
+            producerBuilder.enableBatching(true)
+                           .batchingMaxPublishDelay(batchingMaxPublishDelay.toNanos(), TimeUnit.NANOSECONDS)
+                           // Wait rather than drop replies if the producer's memory limit is reached
+                           .blockIfQueueFull(true);
+            chunkingSettings.configure(producerBuilder);
+        });
+        return producer.newMessage()
+                       .property(Headers.CORRELATION_ID, correlationId)
+                       .property(Headers.USER_ID, userId);
+    }
+
+    /**
+     * Sends a reply asynchronously.  A reply that cannot be sent is logged and counted.  The caller will not receive
+     * it and will time out.
+     * @param reply The reply
+     * @param requestChannel The channel of the request that is being replied to
+     * @param correlationId The correlation id of the request that is being replied to
+     * @return A future that completes when the broker has acknowledged the reply
+     */
+    public CompletableFuture<MessageId> send(TypedMessageBuilder<byte[]> reply, String requestChannel, String correlationId) {
+        var observation = Observation.start(CommandObservations.REPLY_SEND, observationRegistry)
+                                     .lowCardinalityKeyValue(CommandObservations.CHANNEL, requestChannel);
+        return reply.sendAsync()
+                    .whenComplete((messageId, error) -> {
+                        if (error != null) {
+                            failedReplyCount.increment();
+                            logger.error("Could not send reply to request {}", correlationId, error);
+                            observation.lowCardinalityKeyValue(CommandObservations.STATUS, CommandObservations.STATUS_FAILED);
+                            observation.error(error);
+                        }
+                        else {
+                            sentReplyCount.increment();
+                            observation.lowCardinalityKeyValue(CommandObservations.STATUS, CommandObservations.STATUS_SENT);
+                        }
+                        observation.stop();
+                    });
+    }
+
+    /**
+     * Gets the number of replies that have been sent
+     */
+    public long getSentReplyCount() {
+        return sentReplyCount.sum();
+    }
+
+    /**
+     * Gets the number of replies that could not be sent
+     */
+    public long getFailedReplyCount() {
+        return failedReplyCount.sum();
+    }
+}
@@ -0,0 +1,20 @@
+package edu.stanford.protege.webprotege.ipc.pulsar;
+
+/**
+ * Determines the reply channel that a {@link PulsarCommandExecutor} asks handlers to send replies to.
+ */
+public enum ReplyAddressingMode {
+
+    /**
+     * Replies are sent to a channel that is shared by all instances of all services that execute requests for a
+     * given channel.  Every instance receives (and has to inspect) every reply, including replies to requests
+     * that were sent by other instances.
+     */
+    SHARED,
+
+    /**
+     * Replies are sent to a channel that belongs to the service instance (process) that sent the request.  Each
+     * instance only receives replies to its own requests.
+     */
+    INSTANCE
+}
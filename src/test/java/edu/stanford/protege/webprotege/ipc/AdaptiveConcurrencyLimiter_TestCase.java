@@ -0,0 +1,82 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import edu.stanford.protege.webprotege.ipc.pulsar.AdaptiveConcurrencyLimiter;
+import edu.stanford.protege.webprotege.ipc.pulsar.CommandTimeoutTimer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AdaptiveConcurrencyLimiter_TestCase {
+
+    private CommandTimeoutTimer timer;
+
+    @BeforeEach
+    void setUp() {
+        timer = new CommandTimeoutTimer(Duration.ofMillis(10), 64);
+    }
+
+    @AfterEach
+    void tearDown() {
+        timer.stop();
+    }
+
+    @Test
+    void shouldFailFastWhenLimitIsReachedAndQueueIsDisabled() {
+        var limiter = new AdaptiveConcurrencyLimiter(1, 1, 10, 0, Duration.ofSeconds(1), timer);
+        assertThat(limiter.acquire()).isCompleted();
+        assertThatThrownBy(() -> limiter.acquire().get())
+                .isInstanceOf(ExecutionException.class)
+                .matches(throwable -> ((CommandExecutionException) throwable.getCause()).getStatusCode() == 503);
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldGrantQueuedRequestWhenPermitIsReleased() throws Exception {
+        var limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 1, Duration.ofSeconds(10), timer);
+        var permit = limiter.acquire().get();
+        var queued = limiter.acquire();
+        assertThat(queued).isNotDone();
+        assertThat(limiter.getQueued()).isEqualTo(1);
+        permit.release(TimeUnit.MILLISECONDS.toNanos(5), false);
+        assertThat(queued).isCompleted();
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldFailQueuedRequestThatWaitsTooLong() {
+        var limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 1, Duration.ofMillis(50), timer);
+        limiter.acquire();
+        var queued = limiter.acquire();
+        assertThatThrownBy(() -> queued.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .matches(throwable -> ((CommandExecutionException) throwable.getCause()).getStatusCode() == 503);
+        assertThat(limiter.getQueued()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldReduceLimitWhenRequestsAreDropped() throws Exception {
+        var limiter = new AdaptiveConcurrencyLimiter(100, 1, 1000, 0, Duration.ofSeconds(1), timer);
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire().get().release(0, true);
+        }
+        assertThat(limiter.getLimit()).isLessThan(100);
+    }
+
+    @Test
+    void shouldReduceLimitWhenLatencyIncreases() throws Exception {
+        var limiter = new AdaptiveConcurrencyLimiter(100, 1, 1000, 0, Duration.ofSeconds(1), timer);
+        limiter.acquire().get().release(TimeUnit.MILLISECONDS.toNanos(10), false);
+        var initialLimit = limiter.getLimit();
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire().get().release(TimeUnit.MILLISECONDS.toNanos(100), false);
+        }
+        assertThat(limiter.getLimit()).isLessThan(initialLimit);
+    }
+}
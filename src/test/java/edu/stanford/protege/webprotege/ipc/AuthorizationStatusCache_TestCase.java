@@ -0,0 +1,89 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import edu.stanford.protege.webprotege.authorization.*;
+import edu.stanford.protege.webprotege.common.ProjectId;
+import edu.stanford.protege.webprotege.common.UserId;
+import edu.stanford.protege.webprotege.ipc.pulsar.AuthorizationStatusCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AuthorizationStatusCache_TestCase {
+
+    private final AtomicInteger callCount = new AtomicInteger();
+
+    private final CommandExecutor<GetAuthorizedActionsRequest, GetAuthorizedActionsResponse> authorizedActionsExecutor = (request, executionContext) -> {
+        callCount.incrementAndGet();
+        return CompletableFuture.completedFuture(new GetAuthorizedActionsResponse(request.resource(),
+                                                                                  request.subject(),
+                                                                                  Set.of(new ActionId("ViewProject"))));
+    };
+
+    private final ExecutionContext executionContext = new ExecutionContext(new UserId("JohnSmith"), "");
+
+    private ProjectResource projectResource;
+
+    private GetAuthorizedActionsRequest request;
+
+    @BeforeEach
+    void setUp() {
+        callCount.set(0);
+        projectResource = ProjectResource.forProject(ProjectId.generate());
+        request = new GetAuthorizedActionsRequest(projectResource, Subject.forUser("JohnSmith"));
+    }
+
+    @Test
+    void shouldCacheDecision() {
+        var cache = new AuthorizationStatusCache(true, Duration.ofMinutes(1), 100);
+        cache.get(request, executionContext, authorizedActionsExecutor).join();
+        var response = cache.get(request, executionContext, authorizedActionsExecutor).join();
+        assertThat(response.actionIds()).containsExactly(new ActionId("ViewProject"));
+        assertThat(callCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldInvalidateDecisionsForResource() {
+        var cache = new AuthorizationStatusCache(true, Duration.ofMinutes(1), 100);
+        cache.get(request, executionContext, authorizedActionsExecutor).join();
+        cache.invalidate(projectResource);
+        cache.get(request, executionContext, authorizedActionsExecutor).join();
+        assertThat(callCount.get()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldNotCacheDecisionWhenDisabled() {
+        var cache = new AuthorizationStatusCache(false, Duration.ofMinutes(1), 100);
+        cache.get(request, executionContext, authorizedActionsExecutor).join();
+        cache.get(request, executionContext, authorizedActionsExecutor).join();
+        assertThat(callCount.get()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldShareInFlightCallWhenDisabled() {
+        var cache = new AuthorizationStatusCache(false, Duration.ofMinutes(1), 100);
+        var inFlightResponse = new CompletableFuture<GetAuthorizedActionsResponse>();
+        CommandExecutor<GetAuthorizedActionsRequest, GetAuthorizedActionsResponse> pendingExecutor = (r, context) -> {
+            callCount.incrementAndGet();
+            return inFlightResponse;
+        };
+        var first = cache.get(request, executionContext, pendingExecutor);
+        var second = cache.get(request, executionContext, pendingExecutor);
+        assertThat(callCount.get()).isEqualTo(1);
+
+        inFlightResponse.complete(new GetAuthorizedActionsResponse(projectResource,
+                                                                   request.subject(),
+                                                                   Set.of(new ActionId("ViewProject"))));
+        assertThat(first.join().actionIds()).containsExactly(new ActionId("ViewProject"));
+        assertThat(second.join().actionIds()).containsExactly(new ActionId("ViewProject"));
+
+        // Once the call has completed, the next check makes a new call
+        cache.get(request, executionContext, pendingExecutor).join();
+        assertThat(callCount.get()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,69 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import edu.stanford.protege.webprotege.ipc.pulsar.CircuitBreaker;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreaker_TestCase {
+
+    @Test
+    void shouldStayClosedBelowMinimumCalls() {
+        var breaker = new CircuitBreaker("TheChannel", 10, 5, 0.5, Duration.ofSeconds(10), 1);
+        for (int i = 0; i < 4; i++) {
+            breaker.tryAcquirePermission().onFailure();
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void shouldOpenWhenFailureRateIsReached() {
+        var breaker = new CircuitBreaker("TheChannel", 10, 4, 0.5, Duration.ofSeconds(10), 1);
+        breaker.tryAcquirePermission().onSuccess();
+        breaker.tryAcquirePermission().onSuccess();
+        breaker.tryAcquirePermission().onFailure();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        breaker.tryAcquirePermission().onFailure();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquirePermission()).isNull();
+    }
+
+    @Test
+    void shouldCloseAfterSuccessfulProbes() throws InterruptedException {
+        var breaker = new CircuitBreaker("TheChannel", 2, 2, 0.5, Duration.ofMillis(20), 2);
+        breaker.tryAcquirePermission().onFailure();
+        breaker.tryAcquirePermission().onFailure();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        Thread.sleep(40);
+        var probe1 = breaker.tryAcquirePermission();
+        var probe2 = breaker.tryAcquirePermission();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquirePermission()).isNull();
+        probe1.onSuccess();
+        probe2.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void shouldReopenAfterFailedProbe() throws InterruptedException {
+        var breaker = new CircuitBreaker("TheChannel", 2, 2, 0.5, Duration.ofMillis(20), 1);
+        breaker.tryAcquirePermission().onFailure();
+        breaker.tryAcquirePermission().onFailure();
+        Thread.sleep(40);
+        breaker.tryAcquirePermission().onFailure();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void shouldIgnoreOutcomesFromEarlierGenerations() {
+        var breaker = new CircuitBreaker("TheChannel", 2, 2, 0.5, Duration.ofSeconds(10), 1);
+        var stale = breaker.tryAcquirePermission();
+        breaker.tryAcquirePermission().onFailure();
+        breaker.tryAcquirePermission().onFailure();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        stale.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+}
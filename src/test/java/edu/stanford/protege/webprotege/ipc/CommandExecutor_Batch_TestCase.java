@@ -0,0 +1,139 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.common.UserId;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarCommandExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.annotation.DirtiesContext;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+@ExtendWith(PulsarTestExtension.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class CommandExecutor_Batch_TestCase {
+
+    private static final String FAILING_ID = "fail";
+
+    private static final String CHANNEL = "webprotege-tests.batch-test-request";
+
+    @Autowired
+    CommandExecutor<TestRequest, TestResponse> executor;
+
+    @Test
+    void shouldExecuteBatchAndReturnResponsesInOrder() throws Exception {
+        var ids = List.of(UUID.randomUUID().toString(), UUID.randomUUID().toString(), UUID.randomUUID().toString());
+        var requests = ids.stream().map(TestRequest::new).toList();
+        var responses = executor.executeAll(requests, new ExecutionContext(new UserId("JohnSmith"), ""));
+        assertThat(responses).hasSize(3);
+        for (int i = 0; i < ids.size(); i++) {
+            assertThat(responses.get(i).get(30, TimeUnit.SECONDS).getId()).isEqualTo(ids.get(i));
+        }
+    }
+
+    /**
+     * Tests that an error for one request in a batch does not affect the other requests in the batch
+     */
+    @Test
+    void shouldFailOnlyTheFailedItemInABatch() throws Exception {
+        var id = UUID.randomUUID().toString();
+        var requests = List.of(new TestRequest(id), new TestRequest(FAILING_ID));
+        var responses = executor.executeAll(requests, new ExecutionContext(new UserId("JohnSmith"), ""));
+        assertThat(responses.get(0).get(30, TimeUnit.SECONDS).getId()).isEqualTo(id);
+        assertThatThrownBy(() -> responses.get(1).get(30, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(CommandExecutionException.class)
+                .matches(throwable -> ((CommandExecutionException) throwable.getCause()).getStatusCode() == 400);
+    }
+
+    @TestConfiguration
+    public static class CommandExecutorConfig {
+
+        @Bean
+        CommandExecutor<TestRequest, TestResponse> commandExecutor() {
+            return new PulsarCommandExecutor<>(TestResponse.class);
+        }
+
+        @Bean
+        CommandHandler<TestRequest, TestResponse> commandHandler() {
+            return new TestCommandHandler();
+        }
+    }
+
+
+    @JsonTypeName("TestRequest")
+    private static class TestRequest implements Request<TestResponse> {
+
+        private final String id;
+
+        @JsonCreator
+        public TestRequest(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getChannel() {
+            return CHANNEL;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    @JsonTypeName("TestResponse")
+    private static class TestResponse implements Response {
+
+        private final String id;
+
+        @JsonCreator
+        public TestResponse(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    @WebProtegeHandler
+    private static class TestCommandHandler implements CommandHandler<TestRequest, TestResponse> {
+
+        @Nonnull
+        @Override
+        public String getChannelName() {
+            return CHANNEL;
+        }
+
+        @Override
+        public Class<TestRequest> getRequestClass() {
+            return TestRequest.class;
+        }
+
+        @Override
+        public Mono<TestResponse> handleRequest(TestRequest request, ExecutionContext executionContext) {
+            if (request.getId().equals(FAILING_ID)) {
+                return Mono.error(new CommandExecutionException(HttpStatus.BAD_REQUEST));
+            }
+            return Mono.just(new TestResponse(request.getId()));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.common.UserId;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarCommandExecutor;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarReplyInbox;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.annotation.DirtiesContext;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = "webprotege.pulsar.command-executor.sendCancelNotices=true")
+@ExtendWith(PulsarTestExtension.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class CommandExecutor_Cancellation_TestCase {
+
+    private static final String CHANNEL = "webprotege-tests.cancellation-test-request";
+
+    private static volatile CountDownLatch handlerStarted;
+
+    private static volatile CountDownLatch handlerCancelled;
+
+    @Autowired
+    CommandExecutor<TestRequest, TestResponse> executor;
+
+    @Autowired
+    PulsarReplyInbox replyInbox;
+
+    @Test
+    void shouldRemovePendingReplyAndCancelHandlerWhenSubscriptionTimesOut() throws Exception {
+        handlerStarted = new CountDownLatch(1);
+        handlerCancelled = new CountDownLatch(1);
+        var response = executor.executeReactive(new TestRequest(UUID.randomUUID().toString()),
+                                                new ExecutionContext(new UserId("JohnSmith"), ""))
+                               .timeout(Duration.ofSeconds(5));
+        assertThatThrownBy(response::block).hasCauseInstanceOf(TimeoutException.class);
+        assertThat(handlerStarted.await(30, TimeUnit.SECONDS)).isTrue();
+        assertThat(replyInbox.getPendingReplyCount()).isZero();
+        assertThat(handlerCancelled.await(30, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @TestConfiguration
+    public static class CommandExecutorConfig {
+
+        @Bean
+        CommandExecutor<TestRequest, TestResponse> commandExecutor() {
+            return new PulsarCommandExecutor<>(TestResponse.class);
+        }
+
+        @Bean
+        CommandHandler<TestRequest, TestResponse> commandHandler() {
+            return new TestCommandHandler();
+        }
+    }
+
+
+    @JsonTypeName("TestRequest")
+    private static class TestRequest implements Request<TestResponse> {
+
+        private final String id;
+
+        @JsonCreator
+        public TestRequest(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getChannel() {
+            return CHANNEL;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    @JsonTypeName("TestResponse")
+    private static class TestResponse implements Response {
+
+        private final String id;
+
+        @JsonCreator
+        public TestResponse(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    @WebProtegeHandler
+    private static class TestCommandHandler implements CommandHandler<TestRequest, TestResponse> {
+
+        @Nonnull
+        @Override
+        public String getChannelName() {
+            return CHANNEL;
+        }
+
+        @Override
+        public Class<TestRequest> getRequestClass() {
+            return TestRequest.class;
+        }
+
+        @Override
+        public Mono<TestResponse> handleRequest(TestRequest request, ExecutionContext executionContext) {
+            handlerStarted.countDown();
+            return Mono.just(new TestResponse(request.getId()))
+                       .delayElement(Duration.ofMinutes(1))
+                       .doOnCancel(() -> handlerCancelled.countDown());
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.common.UserId;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarCommandExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.annotation.DirtiesContext;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "webprotege.pulsar.chunking.enabled=true")
+@ExtendWith(PulsarTestExtension.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class CommandExecutor_Chunking_TestCase {
+
+    /**
+     * Larger than the default maximum message size of the broker, which is 5MB
+     */
+    private static final int LARGE_PAYLOAD_LENGTH = 6 * 1024 * 1024;
+
+    @Autowired
+    CommandExecutor<TestRequest, TestResponse> executor;
+
+    /**
+     * Tests that a reply that is larger than the maximum message size is sent in chunks and reassembled, in order,
+     * by the caller
+     */
+    @Test
+    void shouldReceiveReplyLargerThanMaxMessageSize() throws Exception {
+        var executionContext = new ExecutionContext(new UserId("JohnSmith"), "");
+        var response = executor.execute(new TestRequest("", LARGE_PAYLOAD_LENGTH), executionContext)
+                               .get(60, TimeUnit.SECONDS);
+        assertThat(response.getPayload()).hasSize(LARGE_PAYLOAD_LENGTH);
+        assertThat(response.getPayload()).isEqualTo(createPayload(LARGE_PAYLOAD_LENGTH));
+    }
+
+    /**
+     * Tests that a request that is larger than the maximum message size is sent in chunks and reassembled by the
+     * handler
+     */
+    @Test
+    void shouldSendRequestLargerThanMaxMessageSize() throws Exception {
+        var executionContext = new ExecutionContext(new UserId("JohnSmith"), "");
+        var payload = createPayload(LARGE_PAYLOAD_LENGTH);
+        var response = executor.execute(new TestRequest(payload, 0), executionContext)
+                               .get(60, TimeUnit.SECONDS);
+        // The handler echoes the length of the request payload that it received
+        assertThat(response.getPayload()).isEqualTo(Integer.toString(LARGE_PAYLOAD_LENGTH));
+    }
+
+    /**
+     * Creates a payload whose content depends on position, so that chunks that are reassembled out of order are
+     * detected
+     */
+    private static String createPayload(int length) {
+        var sb = new StringBuilder(length + 16);
+        for (int i = 0; sb.length() < length; i++) {
+            sb.append(i).append(',');
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    @TestConfiguration
+    public static class CommandExecutorConfig {
+
+        @Bean
+        CommandExecutor<TestRequest, TestResponse> commandExecutor() {
+            return new PulsarCommandExecutor<>(TestResponse.class, Duration.ofSeconds(60));
+        }
+
+        @Bean
+        CommandHandler<TestRequest, TestResponse> commandHandler() {
+            return new TestCommandHandler();
+        }
+    }
+
+
+    @JsonTypeName("ChunkingTestRequest")
+    private static class TestRequest implements Request<TestResponse> {
+
+        private static final String CHANNEL = "webprotege-tests.chunking-test-request";
+
+        private final String payload;
+
+        private final int replyLength;
+
+        @JsonCreator
+        public TestRequest(@JsonProperty("payload") String payload,
+                           @JsonProperty("replyLength") int replyLength) {
+            this.payload = payload;
+            this.replyLength = replyLength;
+        }
+
+        @Override
+        public String getChannel() {
+            return CHANNEL;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+
+        public int getReplyLength() {
+            return replyLength;
+        }
+    }
+
+    @JsonTypeName("ChunkingTestResponse")
+    private static class TestResponse implements Response {
+
+        private final String payload;
+
+        @JsonCreator
+        public TestResponse(@JsonProperty("payload") String payload) {
+            this.payload = payload;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+    }
+
+    @WebProtegeHandler
+    private static class TestCommandHandler implements CommandHandler<TestRequest, TestResponse> {
+
+        @Nonnull
+        @Override
+        public String getChannelName() {
+            return TestRequest.CHANNEL;
+        }
+
+        @Override
+        public Class<TestRequest> getRequestClass() {
+            return TestRequest.class;
+        }
+
+        @Override
+        public Mono<TestResponse> handleRequest(TestRequest request, ExecutionContext executionContext) {
+            if (request.getReplyLength() > 0) {
+                return Mono.just(new TestResponse(createPayload(request.getReplyLength())));
+            }
+            return Mono.just(new TestResponse(Integer.toString(request.getPayload().length())));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.common.UserId;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarCommandExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.annotation.DirtiesContext;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "webprotege.pulsar.command-executor.coalescedChannels=" + CommandExecutor_Coalescing_TestCase.CHANNEL)
+@ExtendWith(PulsarTestExtension.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class CommandExecutor_Coalescing_TestCase {
+
+    static final String CHANNEL = "webprotege-tests.coalescing-test-request";
+
+    private static final AtomicInteger handledRequestsCount = new AtomicInteger();
+
+    @Autowired
+    CommandExecutor<TestRequest, TestResponse> executor;
+
+    @Test
+    void shouldCoalesceIdenticalConcurrentRequests() throws Exception {
+        handledRequestsCount.set(0);
+        var id = UUID.randomUUID().toString();
+        var executionContext = new ExecutionContext(new UserId("JohnSmith"), "");
+        var first = executor.execute(new TestRequest(id), executionContext);
+        var second = executor.execute(new TestRequest(id), executionContext);
+        CompletableFuture.allOf(first, second).get(30, TimeUnit.SECONDS);
+        assertThat(first.get().getId()).isEqualTo(id);
+        assertThat(second.get().getId()).isEqualTo(id);
+        assertThat(handledRequestsCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNotCoalesceRequestsFromDifferentUsers() throws Exception {
+        handledRequestsCount.set(0);
+        var id = UUID.randomUUID().toString();
+        var first = executor.execute(new TestRequest(id), new ExecutionContext(new UserId("JohnSmith"), ""));
+        var second = executor.execute(new TestRequest(id), new ExecutionContext(new UserId("JaneDoe"), ""));
+        CompletableFuture.allOf(first, second).get(30, TimeUnit.SECONDS);
+        assertThat(handledRequestsCount.get()).isEqualTo(2);
+    }
+
+    @TestConfiguration
+    public static class CommandExecutorConfig {
+
+        @Bean
+        CommandExecutor<TestRequest, TestResponse> commandExecutor() {
+            return new PulsarCommandExecutor<>(TestResponse.class);
+        }
+
+        @Bean
+        CommandHandler<TestRequest, TestResponse> commandHandler() {
+            return new TestCommandHandler();
+        }
+    }
+
+
+    @JsonTypeName("TestRequest")
+    private static class TestRequest implements Request<TestResponse> {
+
+        private final String id;
+
+        @JsonCreator
+        public TestRequest(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getChannel() {
+            return CHANNEL;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    @JsonTypeName("TestResponse")
+    private static class TestResponse implements Response {
+
+        private final String id;
+
+        @JsonCreator
+        public TestResponse(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    @WebProtegeHandler
+    private static class TestCommandHandler implements CommandHandler<TestRequest, TestResponse> {
+
+        @Nonnull
+        @Override
+        public String getChannelName() {
+            return CHANNEL;
+        }
+
+        @Override
+        public Class<TestRequest> getRequestClass() {
+            return TestRequest.class;
+        }
+
+        @Override
+        public Mono<TestResponse> handleRequest(TestRequest request, ExecutionContext executionContext) {
+            handledRequestsCount.incrementAndGet();
+            // Delay the reply so that requests overlap
+            return Mono.just(new TestResponse(request.getId())).delayElement(Duration.ofSeconds(1));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.common.UserId;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CommandExecutor_DefaultTimeout_TestCase {
+
+    private final ExecutionContext executionContext = new ExecutionContext(new UserId("JohnSmith"), "");
+
+    @Test
+    void shouldTimeOutWhenNoResponseIsReceived() {
+        CommandExecutor<TestRequest, TestResponse> executor = (request, context) -> new CompletableFuture<>();
+        var response = executor.execute(new TestRequest(), executionContext, Duration.ofMillis(50));
+        assertThatThrownBy(() -> response.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(CommandExecutionException.class)
+                .matches(throwable -> ((CommandExecutionException) throwable.getCause()).getStatusCode() == 504);
+    }
+
+    @Test
+    void shouldNotTimeOutWhenResponseIsReceived() throws Exception {
+        var theResponse = new TestResponse();
+        CommandExecutor<TestRequest, TestResponse> executor = (request, context) -> CompletableFuture.completedFuture(theResponse);
+        var response = executor.execute(new TestRequest(), executionContext, Duration.ofMillis(50));
+        Thread.sleep(200);
+        assertThat(response.isCompletedExceptionally()).isFalse();
+        assertThat(response.get()).isSameAs(theResponse);
+    }
+
+    private static class TestRequest implements Request<TestResponse> {
+
+        @Override
+        public String getChannel() {
+            return "webprotege-tests.default-timeout-test-request";
+        }
+    }
+
+    private static class TestResponse implements Response {
+
+    }
+}
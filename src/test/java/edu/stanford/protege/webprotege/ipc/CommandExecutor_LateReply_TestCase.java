@@ -0,0 +1,140 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.common.UserId;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarCommandExecutor;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarReplyInbox;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.annotation.DirtiesContext;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = "webprotege.pulsar.command-executor.replyAddressingMode=INSTANCE")
+@ExtendWith(PulsarTestExtension.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class CommandExecutor_LateReply_TestCase {
+
+    private static final String SLOW_ID = "slow";
+
+    private static final CountDownLatch lateReplySent = new CountDownLatch(1);
+
+    @Autowired
+    CommandExecutor<TestRequest, TestResponse> executor;
+
+    @Autowired
+    PulsarReplyInbox replyInbox;
+
+    /**
+     * Tests that a reply that arrives on the instance reply channel after its request has timed out is ignored, and
+     * that it is not mistaken for the reply to a later request
+     */
+    @Test
+    void shouldIgnoreReplyThatArrivesAfterTimeout() throws Exception {
+        var executionContext = new ExecutionContext(new UserId("JohnSmith"), "");
+        var slowResponse = executor.execute(new TestRequest(SLOW_ID), executionContext);
+        assertThatThrownBy(() -> slowResponse.get(30, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(CommandExecutionException.class)
+                .matches(throwable -> ((CommandExecutionException) throwable.getCause()).getStatusCode() == 504);
+        assertThat(lateReplySent.await(30, TimeUnit.SECONDS)).isTrue();
+
+        var fastResponse = executor.execute(new TestRequest("fast"), executionContext).get(30, TimeUnit.SECONDS);
+        assertThat(fastResponse.getId()).isEqualTo("fast");
+        assertThat(replyInbox.getPendingReplyCount()).isZero();
+    }
+
+    @TestConfiguration
+    public static class CommandExecutorConfig {
+
+        @Bean
+        CommandExecutor<TestRequest, TestResponse> commandExecutor() {
+            return new PulsarCommandExecutor<>(TestResponse.class, Duration.ofSeconds(1));
+        }
+
+        @Bean
+        CommandHandler<TestRequest, TestResponse> commandHandler() {
+            return new TestCommandHandler();
+        }
+    }
+
+
+    @JsonTypeName("TestRequest")
+    private static class TestRequest implements Request<TestResponse> {
+
+        private static final String CHANNEL = "webprotege-tests.late-reply-test-request";
+
+        private final String id;
+
+        @JsonCreator
+        public TestRequest(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getChannel() {
+            return CHANNEL;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    @JsonTypeName("TestResponse")
+    private static class TestResponse implements Response {
+
+        private final String id;
+
+        @JsonCreator
+        public TestResponse(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    @WebProtegeHandler
+    private static class TestCommandHandler implements CommandHandler<TestRequest, TestResponse> {
+
+        @Nonnull
+        @Override
+        public String getChannelName() {
+            return TestRequest.CHANNEL;
+        }
+
+        @Override
+        public Class<TestRequest> getRequestClass() {
+            return TestRequest.class;
+        }
+
+        @Override
+        public Mono<TestResponse> handleRequest(TestRequest request, ExecutionContext executionContext) {
+            if (request.getId().equals(SLOW_ID)) {
+                // Reply after the executor has given up waiting
+                return Mono.just(new TestResponse(request.getId()))
+                           .delayElement(Duration.ofSeconds(3))
+                           .doOnNext(response -> lateReplySent.countDown());
+            }
+            return Mono.just(new TestResponse(request.getId()));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.common.UserId;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarCommandExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.annotation.DirtiesContext;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = "webprotege.pulsar.command-executor.localDispatch.enabled=true")
+@ExtendWith(PulsarTestExtension.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class CommandExecutor_LocalDispatch_TestCase {
+
+    private static final String CHANNEL = "webprotege-tests.local-dispatch-test-request";
+
+    private static final String FAILING_ID = "fail";
+
+    private static final String NEVER_ID = "never";
+
+    private static final CountDownLatch handlerCancelled = new CountDownLatch(1);
+
+    @Autowired
+    CommandExecutor<TestRequest, TestResponse> executor;
+
+    @Test
+    void shouldPassRequestDirectlyToLocalHandler() throws Exception {
+        var request = new TestRequest(UUID.randomUUID().toString());
+        var response = executor.execute(request, new ExecutionContext(new UserId("JohnSmith"), ""))
+                               .get(30, TimeUnit.SECONDS);
+        assertThat(response.getId()).isEqualTo(request.getId());
+        // The handler received the request object itself, so the request was not serialized
+        assertThat(response.getRequest()).isSameAs(request);
+    }
+
+    @Test
+    void shouldFailWithHandlerErrorStatus() {
+        var future = executor.execute(new TestRequest(FAILING_ID), new ExecutionContext(new UserId("JohnSmith"), ""));
+        assertThatThrownBy(() -> future.get(30, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(CommandExecutionException.class)
+                .cause()
+                .extracting(e -> ((CommandExecutionException) e).getStatus())
+                .isEqualTo(HttpStatus.CONFLICT);
+    }
+
+    /**
+     * Tests that a local request that times out stops the handler
+     */
+    @Test
+    void shouldStopLocalHandlerWhenRequestTimesOut() throws Exception {
+        var future = executor.execute(new TestRequest(NEVER_ID),
+                                      new ExecutionContext(new UserId("JohnSmith"), ""),
+                                      Duration.ofMillis(200));
+        assertThatThrownBy(() -> future.get(30, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(CommandExecutionException.class)
+                .matches(throwable -> ((CommandExecutionException) throwable.getCause()).getStatusCode() == 504);
+        assertThat(handlerCancelled.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @TestConfiguration
+    public static class CommandExecutorConfig {
+
+        @Bean
+        CommandExecutor<TestRequest, TestResponse> commandExecutor() {
+            return new PulsarCommandExecutor<>(TestResponse.class);
+        }
+
+        @Bean
+        CommandHandler<TestRequest, TestResponse> commandHandler() {
+            return new TestCommandHandler();
+        }
+    }
+
+
+    @JsonTypeName("TestRequest")
+    private static class TestRequest implements Request<TestResponse> {
+
+        private final String id;
+
+        @JsonCreator
+        public TestRequest(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getChannel() {
+            return CHANNEL;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    @JsonTypeName("TestResponse")
+    private static class TestResponse implements Response {
+
+        private final String id;
+
+        private final TestRequest request;
+
+        public TestResponse(String id, TestRequest request) {
+            this.id = id;
+            this.request = request;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public TestRequest getRequest() {
+            return request;
+        }
+    }
+
+    @WebProtegeHandler
+    private static class TestCommandHandler implements CommandHandler<TestRequest, TestResponse> {
+
+        @Nonnull
+        @Override
+        public String getChannelName() {
+            return CHANNEL;
+        }
+
+        @Override
+        public Class<TestRequest> getRequestClass() {
+            return TestRequest.class;
+        }
+
+        @Override
+        public Mono<TestResponse> handleRequest(TestRequest request, ExecutionContext executionContext) {
+            if (request.getId().equals(FAILING_ID)) {
+                return Mono.error(new CommandExecutionException(HttpStatus.CONFLICT));
+            }
+            if (request.getId().equals(NEVER_ID)) {
+                return Mono.<TestResponse>never().doOnCancel(handlerCancelled::countDown);
+            }
+            return Mono.just(new TestResponse(request.getId(), request));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.common.UserId;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarCommandExecutor;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarReplyInbox;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarReplySender;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.annotation.DirtiesContext;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+        "webprotege.pulsar.command-executor.replyAddressingMode=INSTANCE",
+        // A long publish delay makes the reply producer batch replies that are sent at about the same time
+        "webprotege.pulsar.command-handler.replyBatchingMaxPublishDelayMicros=10000"
+})
+@ExtendWith(PulsarTestExtension.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class CommandExecutor_ReplyBatching_TestCase {
+
+    private static final int REQUEST_COUNT = 500;
+
+    @Autowired
+    CommandExecutor<TestRequest, TestResponse> executor;
+
+    @Autowired
+    PulsarReplyInbox replyInbox;
+
+    @Autowired
+    PulsarReplySender replySender;
+
+    /**
+     * Tests that many replies that are sent concurrently, and are therefore published in batches, all arrive and are
+     * each matched to the request that they reply to
+     */
+    @Test
+    void shouldDeliverEveryConcurrentlySentReply() throws Exception {
+        var executionContext = new ExecutionContext(new UserId("JohnSmith"), "");
+        var responses = new ArrayList<CompletableFuture<TestResponse>>();
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            responses.add(executor.execute(new TestRequest("Request" + i), executionContext));
+        }
+        CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).get(60, TimeUnit.SECONDS);
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            assertThat(responses.get(i).get().getId()).isEqualTo("Request" + i);
+        }
+        assertThat(replySender.getSentReplyCount()).isEqualTo(REQUEST_COUNT);
+        assertThat(replySender.getFailedReplyCount()).isZero();
+        assertThat(replyInbox.getPendingReplyCount()).isZero();
+    }
+
+    @TestConfiguration
+    public static class CommandExecutorConfig {
+
+        @Bean
+        CommandExecutor<TestRequest, TestResponse> commandExecutor() {
+            return new PulsarCommandExecutor<>(TestResponse.class);
+        }
+
+        @Bean
+        CommandHandler<TestRequest, TestResponse> commandHandler() {
+            return new TestCommandHandler();
+        }
+    }
+
+
+    @JsonTypeName("ReplyBatchingTestRequest")
+    private static class TestRequest implements Request<TestResponse> {
+
+        private static final String CHANNEL = "webprotege-tests.reply-batching-test-request";
+
+        private final String id;
+
+        @JsonCreator
+        public TestRequest(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getChannel() {
+            return CHANNEL;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    @JsonTypeName("ReplyBatchingTestResponse")
+    private static class TestResponse implements Response {
+
+        private final String id;
+
+        @JsonCreator
+        public TestResponse(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    @WebProtegeHandler
+    private static class TestCommandHandler implements CommandHandler<TestRequest, TestResponse> {
+
+        @Nonnull
+        @Override
+        public String getChannelName() {
+            return TestRequest.CHANNEL;
+        }
+
+        @Override
+        public Class<TestRequest> getRequestClass() {
+            return TestRequest.class;
+        }
+
+        @Override
+        public Mono<TestResponse> handleRequest(TestRequest request, ExecutionContext executionContext) {
+            // Complete on a parallel scheduler so that replies are sent from several threads at once
+            return Mono.fromSupplier(() -> new TestResponse(request.getId()))
+                       .subscribeOn(Schedulers.parallel());
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.common.UserId;
+import edu.stanford.protege.webprotege.ipc.pulsar.*;
+import io.micrometer.observation.tck.TestObservationRegistry;
+import io.micrometer.observation.tck.TestObservationRegistryAssert;
+import org.apache.pulsar.client.api.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests how requests whose asynchronous send fails are completed.  The broker is replaced by mock producers so that
+ * send failures can be produced on demand.
+ */
+public class CommandExecutor_SendFailure_TestCase {
+
+    private static final String CHANNEL = "webprotege-tests.send-failure-test-request";
+
+    private final ExecutionContext executionContext = new ExecutionContext(new UserId("JohnSmith"), "");
+
+    private CommandTimeoutTimer timeoutTimer;
+
+    private PulsarReplyInbox replyInbox;
+
+    private TypedMessageBuilder<byte[]> messageBuilder;
+
+    private Producer<byte[]> producer;
+
+    private PulsarProducersManager producersManager;
+
+    private PulsarCommandExecutor<TestRequest, TestResponse> executor;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        var objectMapper = new ObjectMapper();
+        timeoutTimer = new CommandTimeoutTimer(Duration.ofMillis(10), 64);
+
+        var pulsarClient = mock(PulsarClient.class);
+        var consumerBuilder = (ConsumerBuilder<byte[]>) mock(ConsumerBuilder.class, RETURNS_SELF);
+        when(pulsarClient.newConsumer()).thenReturn(consumerBuilder);
+        when(consumerBuilder.subscribe()).thenReturn(mock(Consumer.class));
+        replyInbox = new PulsarReplyInbox("TestApplication",
+                                          "TestTenant",
+                                          pulsarClient,
+                                          objectMapper,
+                                          timeoutTimer,
+                                          ReplyAddressingMode.INSTANCE,
+                                          new ChunkingSettings(false, 10, Duration.ofMinutes(1)),
+                                          256);
+
+        messageBuilder = mock(TypedMessageBuilder.class, RETURNS_SELF);
+        producer = (Producer<byte[]>) mock(Producer.class);
+        when(producer.newMessage()).thenReturn(messageBuilder);
+        producersManager = mock(PulsarProducersManager.class);
+        when(producersManager.getProducer(anyString(), any())).thenReturn(producer);
+
+        executor = new PulsarCommandExecutor<>(TestResponse.class, Duration.ofSeconds(10));
+        ReflectionTestUtils.setField(executor, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(executor, "replyInbox", replyInbox);
+        ReflectionTestUtils.setField(executor, "producersManager", producersManager);
+        ReflectionTestUtils.setField(executor, "responseCache", new CommandResponseCache(objectMapper, 1_000_000, 0.8));
+        ReflectionTestUtils.setField(executor, "timeoutTimer", timeoutTimer);
+        ReflectionTestUtils.setField(executor, "circuitBreakers", new CircuitBreakers(false, 20, 10, 0.5, Duration.ofSeconds(10), 3));
+        ReflectionTestUtils.setField(executor, "localCommandHandlers", new LocalCommandHandlers(false));
+        ReflectionTestUtils.setField(executor, "logSampler", new CommandLogSampler(1.0, Map.of()));
+        ReflectionTestUtils.setField(executor, "chunkingSettings", new ChunkingSettings(false, 10, Duration.ofMinutes(1)));
+        ReflectionTestUtils.setField(executor, "tenant", "TestTenant");
+    }
+
+    @AfterEach
+    void tearDown() {
+        timeoutTimer.stop();
+    }
+
+    /**
+     * Tests that a request whose send fails completes with an internal server error (HTTP 500) rather than waiting
+     * for its timeout
+     */
+    @Test
+    void shouldFailRequestWhenSendFails() {
+        when(messageBuilder.sendAsync()).thenReturn(CompletableFuture.failedFuture(new PulsarClientException("Broker went away")));
+        var response = executor.execute(new TestRequest("A"), executionContext);
+        assertThatThrownBy(() -> response.get(1, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(CommandExecutionException.class)
+                .matches(throwable -> ((CommandExecutionException) throwable.getCause()).getStatusCode() == 500);
+        assertThat(replyInbox.getPendingReplyCount()).isZero();
+    }
+
+    /**
+     * Tests that a request that is rejected because too many sends are pending completes with a service unavailable
+     * error (HTTP 503)
+     */
+    @Test
+    void shouldRejectRequestWhenProducerQueueIsFull() {
+        when(messageBuilder.sendAsync()).thenReturn(CompletableFuture.failedFuture(new PulsarClientException.ProducerQueueIsFullError("Queue is full")));
+        var response = executor.execute(new TestRequest("A"), executionContext);
+        assertThatThrownBy(() -> response.get(1, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(CommandExecutionException.class)
+                .matches(throwable -> ((CommandExecutionException) throwable.getCause()).getStatusCode() == 503);
+        assertThat(replyInbox.getPendingReplyCount()).isZero();
+    }
+
+    /**
+     * Tests that a send that fails after the request has been handed to the producer also fails the request
+     */
+    @Test
+    void shouldFailRequestWhenSendFailsLater() {
+        var send = new CompletableFuture<MessageId>();
+        when(messageBuilder.sendAsync()).thenReturn(send);
+        var response = executor.execute(new TestRequest("A"), executionContext);
+        assertThat(response).isNotDone();
+        send.completeExceptionally(new PulsarClientException.TimeoutException("Send timed out"));
+        assertThatThrownBy(() -> response.get(1, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(CommandExecutionException.class)
+                .matches(throwable -> ((CommandExecutionException) throwable.getCause()).getStatusCode() == 500);
+    }
+
+    /**
+     * Tests that a coalesced request whose send throws does not leave an in flight entry behind, so that a later
+     * identical request is sent rather than attaching to a request that will never complete
+     */
+    @Test
+    void shouldNotLeaveCoalescedRequestInFlightWhenSendThrows() {
+        ReflectionTestUtils.setField(executor, "coalescedChannels", Set.of(CHANNEL));
+        when(producersManager.getProducer(anyString(), any()))
+                .thenThrow(new UncheckedIOException(new PulsarClientException("Cannot create producer")))
+                .thenReturn(producer);
+        when(messageBuilder.sendAsync()).thenReturn(new CompletableFuture<>());
+        assertThatThrownBy(() -> executor.execute(new TestRequest("A"), executionContext))
+                .isInstanceOf(UncheckedIOException.class);
+
+        var response = executor.execute(new TestRequest("A"), executionContext, Duration.ofMillis(100));
+        verify(messageBuilder).sendAsync();
+        assertThatThrownBy(() -> response.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(CommandExecutionException.class)
+                .matches(throwable -> ((CommandExecutionException) throwable.getCause()).getStatusCode() == 504);
+    }
+
+    /**
+     * Tests that the observation of a request is stopped, with an error, if the request cannot be sent because an
+     * exception is thrown before the request is handed to the producer
+     */
+    @Test
+    void shouldStopObservationWhenSendThrows() {
+        var observationRegistry = TestObservationRegistry.create();
+        ReflectionTestUtils.setField(executor, "observationRegistry", observationRegistry);
+        when(producersManager.getProducer(anyString(), any()))
+                .thenThrow(new UncheckedIOException(new PulsarClientException("Cannot create producer")));
+        assertThatThrownBy(() -> executor.execute(new TestRequest("A"), executionContext))
+                .isInstanceOf(UncheckedIOException.class);
+
+        TestObservationRegistryAssert.assertThat(observationRegistry)
+                                     .hasObservationWithNameEqualTo(CommandObservations.EXECUTE)
+                                     .that()
+                                     .hasBeenStopped()
+                                     .hasError()
+                                     .hasLowCardinalityKeyValue(CommandObservations.STATUS, "500");
+    }
+
+    private static class TestRequest implements Request<TestResponse> {
+
+        private final String id;
+
+        @JsonCreator
+        public TestRequest(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getChannel() {
+            return CHANNEL;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    private static class TestResponse implements Response {
+
+    }
+}
@@ -0,0 +1,213 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.common.UserId;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarCommandExecutor;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarReplyInbox;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.annotation.DirtiesContext;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "webprotege.pulsar.command-executor.replyAddressingMode=INSTANCE")
+@ExtendWith(PulsarTestExtension.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class CommandExecutor_SharedReplyInbox_TestCase {
+
+    private static final int REQUESTS_PER_EXECUTOR = 50;
+
+    @Autowired
+    CommandExecutor<NameRequest, NameResponse> nameExecutor;
+
+    @Autowired
+    CommandExecutor<CountRequest, CountResponse> countExecutor;
+
+    @Autowired
+    PulsarReplyInbox replyInbox;
+
+    /**
+     * Tests that replies for two executors with different response classes, which arrive interleaved on the same
+     * reply channel, are each routed to the executor that sent the request and decoded as its response class
+     */
+    @Test
+    void shouldRouteInterleavedRepliesToTheirExecutors() throws Exception {
+        assertThat(replyInbox.getReplyChannel(NameRequest.CHANNEL))
+                .isEqualTo(replyInbox.getReplyChannel(CountRequest.CHANNEL));
+        var executionContext = new ExecutionContext(new UserId("JohnSmith"), "");
+        var nameResponses = new ArrayList<CompletableFuture<NameResponse>>();
+        var countResponses = new ArrayList<CompletableFuture<CountResponse>>();
+        for (int i = 0; i < REQUESTS_PER_EXECUTOR; i++) {
+            nameResponses.add(nameExecutor.execute(new NameRequest("Name" + i), executionContext));
+            countResponses.add(countExecutor.execute(new CountRequest(i), executionContext));
+        }
+        var all = new ArrayList<CompletableFuture<?>>(nameResponses);
+        all.addAll(countResponses);
+        CompletableFuture.allOf(all.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+        for (int i = 0; i < REQUESTS_PER_EXECUTOR; i++) {
+            assertThat(nameResponses.get(i).get()).isInstanceOf(NameResponse.class);
+            assertThat(nameResponses.get(i).get().getName()).isEqualTo("Name" + i);
+            assertThat(countResponses.get(i).get()).isInstanceOf(CountResponse.class);
+            assertThat(countResponses.get(i).get().getCount()).isEqualTo(i + 1);
+        }
+        assertThat(replyInbox.getPendingReplyCount()).isZero();
+    }
+
+    @TestConfiguration
+    public static class CommandExecutorConfig {
+
+        @Bean
+        CommandExecutor<NameRequest, NameResponse> nameExecutor() {
+            return new PulsarCommandExecutor<>(NameResponse.class);
+        }
+
+        @Bean
+        CommandExecutor<CountRequest, CountResponse> countExecutor() {
+            return new PulsarCommandExecutor<>(CountResponse.class);
+        }
+
+        @Bean
+        CommandHandler<NameRequest, NameResponse> nameHandler() {
+            return new NameHandler();
+        }
+
+        @Bean
+        CommandHandler<CountRequest, CountResponse> countHandler() {
+            return new CountHandler();
+        }
+    }
+
+
+    @JsonTypeName("NameRequest")
+    private static class NameRequest implements Request<NameResponse> {
+
+        private static final String CHANNEL = "webprotege-tests.shared-inbox-name-request";
+
+        private final String name;
+
+        @JsonCreator
+        public NameRequest(@JsonProperty("name") String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getChannel() {
+            return CHANNEL;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    @JsonTypeName("NameResponse")
+    private static class NameResponse implements Response {
+
+        private final String name;
+
+        @JsonCreator
+        public NameResponse(@JsonProperty("name") String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    @JsonTypeName("CountRequest")
+    private static class CountRequest implements Request<CountResponse> {
+
+        private static final String CHANNEL = "webprotege-tests.shared-inbox-count-request";
+
+        private final int count;
+
+        @JsonCreator
+        public CountRequest(@JsonProperty("count") int count) {
+            this.count = count;
+        }
+
+        @Override
+        public String getChannel() {
+            return CHANNEL;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    @JsonTypeName("CountResponse")
+    private static class CountResponse implements Response {
+
+        private final int count;
+
+        @JsonCreator
+        public CountResponse(@JsonProperty("count") int count) {
+            this.count = count;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    @WebProtegeHandler
+    private static class NameHandler implements CommandHandler<NameRequest, NameResponse> {
+
+        @Nonnull
+        @Override
+        public String getChannelName() {
+            return NameRequest.CHANNEL;
+        }
+
+        @Override
+        public Class<NameRequest> getRequestClass() {
+            return NameRequest.class;
+        }
+
+        @Override
+        public Mono<NameResponse> handleRequest(NameRequest request, ExecutionContext executionContext) {
+            // Vary the reply order so that replies for the two executors interleave
+            return Mono.just(new NameResponse(request.getName()))
+                       .delayElement(Duration.ofMillis(request.getName().length() * 7L % 50));
+        }
+    }
+
+    @WebProtegeHandler
+    private static class CountHandler implements CommandHandler<CountRequest, CountResponse> {
+
+        @Nonnull
+        @Override
+        public String getChannelName() {
+            return CountRequest.CHANNEL;
+        }
+
+        @Override
+        public Class<CountRequest> getRequestClass() {
+            return CountRequest.class;
+        }
+
+        @Override
+        public Mono<CountResponse> handleRequest(CountRequest request, ExecutionContext executionContext) {
+            return Mono.just(new CountResponse(request.getCount() + 1))
+                       .delayElement(Duration.ofMillis(request.getCount() * 13L % 50));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.common.UserId;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarCommandExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.annotation.DirtiesContext;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+@ExtendWith(PulsarTestExtension.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class CommandExecutor_Streaming_TestCase {
+
+    private static final String CHANNEL = "webprotege-tests.streaming-test-request";
+
+    @Autowired
+    CommandExecutor<TestRequest, TestResponse> executor;
+
+    @Test
+    void shouldReceiveChunksInOrder() {
+        var chunks = executor.executeStreaming(new TestRequest(20, false), new ExecutionContext(new UserId("JohnSmith"), ""))
+                             .map(TestResponse::getValue)
+                             .collectList()
+                             .block(Duration.ofSeconds(30));
+        var expected = new ArrayList<Integer>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(i);
+        }
+        assertThat(chunks).isEqualTo(expected);
+    }
+
+    @Test
+    void shouldReceiveChunksBeforeError() {
+        var chunks = executor.executeStreaming(new TestRequest(3, true), new ExecutionContext(new UserId("JohnSmith"), ""))
+                             .map(TestResponse::getValue);
+        StepVerifier.create(chunks)
+                    .expectNext(0, 1, 2)
+                    .expectErrorMatches(e -> e instanceof CommandExecutionException ex && ex.getStatus() == HttpStatus.CONFLICT)
+                    .verify(Duration.ofSeconds(30));
+    }
+
+    @TestConfiguration
+    public static class CommandExecutorConfig {
+
+        @Bean
+        CommandExecutor<TestRequest, TestResponse> commandExecutor() {
+            return new PulsarCommandExecutor<>(TestResponse.class);
+        }
+
+        @Bean
+        CommandHandler<TestRequest, TestResponse> commandHandler() {
+            return new TestCommandHandler();
+        }
+    }
+
+
+    @JsonTypeName("TestRequest")
+    private static class TestRequest implements Request<TestResponse> {
+
+        private final int count;
+
+        private final boolean fail;
+
+        @JsonCreator
+        public TestRequest(@JsonProperty("count") int count, @JsonProperty("fail") boolean fail) {
+            this.count = count;
+            this.fail = fail;
+        }
+
+        @Override
+        public String getChannel() {
+            return CHANNEL;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public boolean isFail() {
+            return fail;
+        }
+    }
+
+    @JsonTypeName("TestResponse")
+    private static class TestResponse implements Response {
+
+        private final int value;
+
+        @JsonCreator
+        public TestResponse(@JsonProperty("value") int value) {
+            this.value = value;
+        }
+
+        public int getValue() {
+            return value;
+        }
+    }
+
+    @WebProtegeHandler
+    private static class TestCommandHandler implements StreamingCommandHandler<TestRequest, TestResponse> {
+
+        @Nonnull
+        @Override
+        public String getChannelName() {
+            return CHANNEL;
+        }
+
+        @Override
+        public Class<TestRequest> getRequestClass() {
+            return TestRequest.class;
+        }
+
+        @Override
+        public Flux<TestResponse> handleStreamingRequest(TestRequest request, ExecutionContext executionContext) {
+            var chunks = Flux.range(0, request.getCount()).map(TestResponse::new);
+            if (request.isFail()) {
+                return chunks.concatWith(Flux.error(new CommandExecutionException(HttpStatus.CONFLICT)));
+            }
+            return chunks;
+        }
+    }
+}
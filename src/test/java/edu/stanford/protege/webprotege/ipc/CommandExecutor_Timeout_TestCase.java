@@ -0,0 +1,140 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.common.UserId;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarCommandExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.test.annotation.DirtiesContext;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+@ExtendWith(PulsarTestExtension.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class CommandExecutor_Timeout_TestCase {
+
+    private static final Duration EXECUTOR_TIMEOUT = Duration.ofSeconds(4);
+
+    @Autowired
+    CommandExecutor<TestRequest, TestResponse> executor;
+
+    /**
+     * Tests that if the handler never replies then the caller receives a gateway timeout error (HTTP 504)
+     */
+    @Test
+    void shouldTimeOutRequestWhenNoReplyIsReceived() {
+        var id = UUID.randomUUID().toString();
+        assertThatThrownBy(() -> {
+            var response = executor.execute(new TestRequest(id), new ExecutionContext(new UserId("JohnSmith"), ""));
+            response.get(30, TimeUnit.SECONDS);
+        }).isInstanceOf(ExecutionException.class)
+          .hasCauseInstanceOf(CommandExecutionException.class)
+          .matches(throwable -> ((CommandExecutionException) throwable.getCause()).getStatusCode() == 504);
+    }
+
+    /**
+     * Tests that a per-call timeout overrides the timeout for the executor.  The caller waits for less time than the
+     * timeout of the executor, so the request only times out in time if the per-call timeout is used.
+     */
+    @Test
+    void shouldTimeOutRequestWithPerCallTimeout() {
+        var id = UUID.randomUUID().toString();
+        assertThatThrownBy(() -> {
+            var response = executor.execute(new TestRequest(id),
+                                            new ExecutionContext(new UserId("JohnSmith"), ""),
+                                            Duration.ofMillis(500));
+            response.get(EXECUTOR_TIMEOUT.toMillis() / 2, TimeUnit.MILLISECONDS);
+        }).isInstanceOf(ExecutionException.class)
+          .hasCauseInstanceOf(CommandExecutionException.class)
+          .matches(throwable -> ((CommandExecutionException) throwable.getCause()).getStatusCode() == 504);
+    }
+
+    @TestConfiguration
+    public static class CommandExecutorConfig {
+
+        @Bean
+        CommandExecutor<TestRequest, TestResponse> commandExecutor() {
+            return new PulsarCommandExecutor<>(TestResponse.class, EXECUTOR_TIMEOUT);
+        }
+
+        @Bean
+        CommandHandler<TestRequest, TestResponse> commandHandler() {
+            return new TestCommandHandler();
+        }
+    }
+
+
+    @JsonTypeName("TestRequest")
+    private static class TestRequest implements Request<TestResponse> {
+
+        private static final String CHANNEL = "webprotege-tests.timeout-test-request";
+
+        private final String id;
+
+        @JsonCreator
+        public TestRequest(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getChannel() {
+            return CHANNEL;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    @JsonTypeName("TestResponse")
+    private static class TestResponse implements Response {
+
+        private final String id;
+
+        @JsonCreator
+        public TestResponse(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    @WebProtegeHandler
+    private static class TestCommandHandler implements CommandHandler<TestRequest, TestResponse> {
+
+        @Nonnull
+        @Override
+        public String getChannelName() {
+            return TestRequest.CHANNEL;
+        }
+
+        @Override
+        public Class<TestRequest> getRequestClass() {
+            return TestRequest.class;
+        }
+
+        @Override
+        public Mono<TestResponse> handleRequest(TestRequest request, ExecutionContext executionContext) {
+            // Deliberately never reply
+            return Mono.never();
+        }
+    }
+}
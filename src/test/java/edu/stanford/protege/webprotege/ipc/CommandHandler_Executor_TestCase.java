@@ -0,0 +1,137 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.common.UserId;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarCommandExecutor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.annotation.DirtiesContext;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {
+        "webprotege.pulsar.command-handler.executor.threads=1",
+        "webprotege.pulsar.command-handler.executor.queueSize=0"
+})
+@ExtendWith(PulsarTestExtension.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class CommandHandler_Executor_TestCase {
+
+    private static final String CHANNEL = "webprotege-tests.handler-executor-test-request";
+
+    @Autowired
+    CommandExecutor<TestRequest, TestResponse> executor;
+
+    @Test
+    void shouldHandleRequestOnHandlerThread() throws Exception {
+        var response = executor.execute(new TestRequest(0), new ExecutionContext(new UserId("JohnSmith"), ""))
+                               .get(30, TimeUnit.SECONDS);
+        assertThat(response.getThreadName()).startsWith("command-handler-" + CHANNEL);
+    }
+
+    @Test
+    void shouldRejectRequestWhenHandlerExecutorIsFull() throws Exception {
+        var executionContext = new ExecutionContext(new UserId("JohnSmith"), "");
+        var slow = executor.execute(new TestRequest(3000), executionContext);
+        // Give the slow request time to occupy the only handler thread
+        Thread.sleep(1000);
+        var rejected = executor.execute(new TestRequest(0), executionContext);
+        assertThatThrownBy(() -> rejected.get(30, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .cause()
+                .isInstanceOfSatisfying(CommandExecutionException.class,
+                                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE));
+        assertThat(slow.get(30, TimeUnit.SECONDS)).isNotNull();
+    }
+
+    @TestConfiguration
+    public static class CommandExecutorConfig {
+
+        @Bean
+        CommandExecutor<TestRequest, TestResponse> commandExecutor() {
+            return new PulsarCommandExecutor<>(TestResponse.class);
+        }
+
+        @Bean
+        CommandHandler<TestRequest, TestResponse> commandHandler() {
+            return new TestCommandHandler();
+        }
+    }
+
+
+    @JsonTypeName("TestRequest")
+    private static class TestRequest implements Request<TestResponse> {
+
+        private final long blockMillis;
+
+        @JsonCreator
+        public TestRequest(@JsonProperty("blockMillis") long blockMillis) {
+            this.blockMillis = blockMillis;
+        }
+
+        @Override
+        public String getChannel() {
+            return CHANNEL;
+        }
+
+        public long getBlockMillis() {
+            return blockMillis;
+        }
+    }
+
+    @JsonTypeName("TestResponse")
+    private static class TestResponse implements Response {
+
+        private final String threadName;
+
+        @JsonCreator
+        public TestResponse(@JsonProperty("threadName") String threadName) {
+            this.threadName = threadName;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+    }
+
+    @WebProtegeHandler
+    private static class TestCommandHandler implements CommandHandler<TestRequest, TestResponse> {
+
+        @Nonnull
+        @Override
+        public String getChannelName() {
+            return CHANNEL;
+        }
+
+        @Override
+        public Class<TestRequest> getRequestClass() {
+            return TestRequest.class;
+        }
+
+        @Override
+        public Mono<TestResponse> handleRequest(TestRequest request, ExecutionContext executionContext) {
+            try {
+                // Simulate blocking work in the handler
+                Thread.sleep(request.getBlockMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Mono.just(new TestResponse(Thread.currentThread().getName()));
+        }
+    }
+}
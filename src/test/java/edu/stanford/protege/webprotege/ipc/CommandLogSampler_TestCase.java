@@ -0,0 +1,37 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import edu.stanford.protege.webprotege.ipc.pulsar.CommandLogSampler;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CommandLogSampler_TestCase {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommandLogSampler_TestCase.class);
+
+    @Test
+    void shouldUseChannelSampleRates() {
+        var sampler = new CommandLogSampler(1, Map.of("quiet.channel", 0.0));
+        assertThat(sampler.shouldLog(logger, "some.channel")).isTrue();
+        assertThat(sampler.shouldLog(logger, "quiet.channel")).isFalse();
+        assertThat(sampler.getSuppressedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldParseChannelSampleRates() {
+        var sampleRates = CommandLogSampler.parseChannelSampleRates("a.channel=0.01, b.channel = 1,");
+        assertThat(sampleRates).containsExactlyInAnyOrderEntriesOf(Map.of("a.channel", 0.01, "b.channel", 1.0));
+        assertThat(CommandLogSampler.parseChannelSampleRates("")).isEmpty();
+    }
+
+    @Test
+    void shouldRejectMalformedChannelSampleRates() {
+        assertThatThrownBy(() -> CommandLogSampler.parseChannelSampleRates("a.channel"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,131 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.stanford.protege.webprotege.ipc.pulsar.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CommandMetrics_TestCase {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private CommandMetrics commandMetrics;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        commandMetrics = new CommandMetrics(meterRegistry);
+    }
+
+    @Test
+    void shouldRegisterPendingReplyGauge() {
+        var replyInbox = mock(PulsarReplyInbox.class);
+        when(replyInbox.getPendingReplyCount()).thenReturn(3);
+        commandMetrics.bindReplyInbox(replyInbox);
+        assertThat(meterRegistry.get(CommandMetrics.PENDING_REPLIES).gauge().value()).isEqualTo(3);
+    }
+
+    @Test
+    void shouldRegisterReplyCounters() {
+        var replySender = mock(PulsarReplySender.class);
+        when(replySender.getSentReplyCount()).thenReturn(7L);
+        when(replySender.getFailedReplyCount()).thenReturn(2L);
+        commandMetrics.bindReplySender(replySender);
+        assertThat(meterRegistry.get(CommandMetrics.REPLIES)
+                                .tag(CommandObservations.STATUS, CommandObservations.STATUS_SENT)
+                                .functionCounter()
+                                .count()).isEqualTo(7);
+        assertThat(meterRegistry.get(CommandMetrics.REPLIES)
+                                .tag(CommandObservations.STATUS, CommandObservations.STATUS_FAILED)
+                                .functionCounter()
+                                .count()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldRegisterConcurrencyLimiterGaugesTaggedWithChannel() {
+        var concurrencyLimiter = mock(AdaptiveConcurrencyLimiter.class);
+        when(concurrencyLimiter.getLimit()).thenReturn(20);
+        when(concurrencyLimiter.getInFlight()).thenReturn(7);
+        when(concurrencyLimiter.getQueued()).thenReturn(3);
+        commandMetrics.bindConcurrencyLimiter("webprotege-tests.metrics-test-request", concurrencyLimiter);
+        assertThat(meterRegistry.get(CommandMetrics.EXECUTOR_LIMIT)
+                                .tag(CommandObservations.CHANNEL, "webprotege-tests.metrics-test-request")
+                                .gauge()
+                                .value()).isEqualTo(20);
+        assertThat(meterRegistry.get(CommandMetrics.EXECUTOR_IN_FLIGHT)
+                                .tag(CommandObservations.CHANNEL, "webprotege-tests.metrics-test-request")
+                                .gauge()
+                                .value()).isEqualTo(7);
+        assertThat(meterRegistry.get(CommandMetrics.EXECUTOR_QUEUED)
+                                .tag(CommandObservations.CHANNEL, "webprotege-tests.metrics-test-request")
+                                .gauge()
+                                .value()).isEqualTo(3);
+    }
+
+    @Test
+    void shouldRegisterResponseCacheStatistics() {
+        var responseCache = new CommandResponseCache(new ObjectMapper(), 1_000_000, 0.8);
+        commandMetrics.bindResponseCache(responseCache);
+        var key = new CommandResponseCache.CacheKey("webprotege-tests.metrics-test-request", "JohnSmith", "A");
+        responseCache.get(key, Duration.ofMinutes(1), String.class, replySizeRecorder -> CompletableFuture.completedFuture("Response")).join();
+        responseCache.get(key, Duration.ofMinutes(1), String.class, replySizeRecorder -> CompletableFuture.completedFuture("Response")).join();
+        assertThat(meterRegistry.get("cache.gets")
+                                .tag("cache", CommandMetrics.RESPONSE_CACHE)
+                                .tag("result", "hit")
+                                .functionCounter()
+                                .count()).isEqualTo(1);
+        assertThat(meterRegistry.get("cache.gets")
+                                .tag("cache", CommandMetrics.RESPONSE_CACHE)
+                                .tag("result", "miss")
+                                .functionCounter()
+                                .count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRegisterAuthorizationCacheStatistics() {
+        var authorizationStatusCache = new AuthorizationStatusCache(true, Duration.ofMinutes(1), 100);
+        commandMetrics.bindAuthorizationCache(authorizationStatusCache);
+        assertThat(meterRegistry.get("cache.size")
+                                .tag("cache", CommandMetrics.AUTHORIZATION_CACHE)
+                                .gauge()
+                                .value()).isZero();
+    }
+
+    @Test
+    void shouldRegisterSuppressedLogMessageCounter() {
+        var logSampler = mock(CommandLogSampler.class);
+        when(logSampler.getSuppressedCount()).thenReturn(11L);
+        commandMetrics.bindLogSampler(logSampler);
+        assertThat(meterRegistry.get(CommandMetrics.LOG_MESSAGES_SUPPRESSED).functionCounter().count()).isEqualTo(11);
+    }
+
+    @Test
+    void shouldRegisterHandlerGaugesTaggedWithChannel() {
+        var wrapper = mock(PulsarCommandHandlerWrapper.class);
+        when(wrapper.getChannelName()).thenReturn("webprotege-tests.metrics-test-request");
+        when(wrapper.getBacklog()).thenReturn(5);
+        when(wrapper.getInFlightRequestCount()).thenReturn(2);
+        when(wrapper.getExpiredRequestCount()).thenReturn(4L);
+        commandMetrics.bindHandler(wrapper);
+        assertThat(meterRegistry.get(CommandMetrics.HANDLER_BACKLOG)
+                                .tag(CommandObservations.CHANNEL, "webprotege-tests.metrics-test-request")
+                                .gauge()
+                                .value()).isEqualTo(5);
+        assertThat(meterRegistry.get(CommandMetrics.HANDLER_IN_FLIGHT)
+                                .tag(CommandObservations.CHANNEL, "webprotege-tests.metrics-test-request")
+                                .gauge()
+                                .value()).isEqualTo(2);
+        assertThat(meterRegistry.get(CommandMetrics.HANDLER_EXPIRED)
+                                .tag(CommandObservations.CHANNEL, "webprotege-tests.metrics-test-request")
+                                .functionCounter()
+                                .count()).isEqualTo(4);
+    }
+}
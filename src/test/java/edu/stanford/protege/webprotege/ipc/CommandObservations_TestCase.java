@@ -0,0 +1,31 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import edu.stanford.protege.webprotege.ipc.pulsar.CommandObservations;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CommandObservations_TestCase {
+
+    @Test
+    void shouldGetStatusOfSuccessfulRequest() {
+        assertThat(CommandObservations.getStatus(null)).isEqualTo("200");
+    }
+
+    @Test
+    void shouldGetStatusOfFailedRequest() {
+        var error = new CommandExecutionException(HttpStatus.FORBIDDEN);
+        assertThat(CommandObservations.getStatus(error)).isEqualTo("403");
+        assertThat(CommandObservations.getStatus(new CompletionException(error))).isEqualTo("403");
+        assertThat(CommandObservations.getStatus(new RuntimeException())).isEqualTo("500");
+    }
+
+    @Test
+    void shouldGetStatusOfCancelledRequest() {
+        assertThat(CommandObservations.getStatus(new CancellationException())).isEqualTo(CommandObservations.STATUS_CANCELLED);
+    }
+}
@@ -0,0 +1,105 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.stanford.protege.webprotege.ipc.pulsar.CommandResponseCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CommandResponseCache_TestCase {
+
+    private static final Duration TTL = Duration.ofMinutes(1);
+
+    private final CommandResponseCache.CacheKey key = new CommandResponseCache.CacheKey("the.channel", "JohnSmith", "the.key");
+
+    private AtomicInteger executionCount;
+
+    @BeforeEach
+    void setUp() {
+        executionCount = new AtomicInteger();
+    }
+
+    @Test
+    void shouldServeSecondRequestFromCache() throws Exception {
+        var cache = new CommandResponseCache(new ObjectMapper(), 1024 * 1024, 1.0);
+        var first = cache.get(key, TTL, String.class, this::execute).get();
+        var second = cache.get(key, TTL, String.class, this::execute).get();
+        assertThat(first).isEqualTo("response-1");
+        assertThat(second).isEqualTo("response-1");
+        assertThat(executionCount.get()).isEqualTo(1);
+        assertThat(cache.getStats().hitCount()).isEqualTo(1);
+        assertThat(cache.getStats().missCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNotServeRequestsForOtherUsersFromCache() throws Exception {
+        var cache = new CommandResponseCache(new ObjectMapper(), 1024 * 1024, 1.0);
+        cache.get(key, TTL, String.class, this::execute).get();
+        var otherUserKey = new CommandResponseCache.CacheKey("the.channel", "JaneDoe", "the.key");
+        var response = cache.get(otherUserKey, TTL, String.class, this::execute).get();
+        assertThat(response).isEqualTo("response-2");
+    }
+
+    @Test
+    void shouldNotCacheFailedResponses() throws Exception {
+        var cache = new CommandResponseCache(new ObjectMapper(), 1024 * 1024, 1.0);
+        cache.get(key, TTL, String.class, replySize -> CompletableFuture.failedFuture(new CommandExecutionException(500)))
+             .exceptionally(e -> null)
+             .get();
+        var response = cache.get(key, TTL, String.class, this::execute).get();
+        assertThat(response).isEqualTo("response-1");
+    }
+
+    @Test
+    void shouldRefreshEntryThatIsDueForRefresh() throws Exception {
+        var cache = new CommandResponseCache(new ObjectMapper(), 1024 * 1024, 0.0);
+        cache.get(key, TTL, String.class, this::execute).get();
+        var stale = cache.get(key, TTL, String.class, this::execute).get();
+        var refreshed = cache.get(key, TTL, String.class, this::execute).get();
+        assertThat(stale).isEqualTo("response-1");
+        assertThat(refreshed).isEqualTo("response-2");
+    }
+
+    @Test
+    void shouldShareExecutionBetweenConcurrentMisses() throws Exception {
+        var cache = new CommandResponseCache(new ObjectMapper(), 1024 * 1024, 1.0);
+        var execution = new CompletableFuture<String>();
+        var first = cache.get(key, TTL, String.class, replySize -> {
+            executionCount.incrementAndGet();
+            return execution;
+        });
+        var second = cache.get(key, TTL, String.class, this::execute);
+        assertThat(first).isNotDone();
+        assertThat(second).isNotDone();
+        execution.complete("shared-response");
+        assertThat(first.get()).isEqualTo("shared-response");
+        assertThat(second.get()).isEqualTo("shared-response");
+        assertThat(executionCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldServeCachedResponseWhenRefreshThrows() throws Exception {
+        var cache = new CommandResponseCache(new ObjectMapper(), 1024 * 1024, 0.0);
+        cache.get(key, TTL, String.class, this::execute).get();
+        var stale = cache.get(key, TTL, String.class, replySize -> {
+            throw new IllegalStateException("Cannot send request");
+        }).get();
+        assertThat(stale).isEqualTo("response-1");
+        // The failed refresh must not stop the entry from being refreshed later
+        cache.get(key, TTL, String.class, this::execute).get();
+        var refreshed = cache.get(key, TTL, String.class, this::execute).get();
+        assertThat(refreshed).isEqualTo("response-2");
+    }
+
+    private CompletableFuture<String> execute(IntConsumer replySizeRecorder) {
+        var response = "response-" + executionCount.incrementAndGet();
+        replySizeRecorder.accept(response.length());
+        return CompletableFuture.completedFuture(response);
+    }
+}
@@ -0,0 +1,31 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import edu.stanford.protege.webprotege.ipc.pulsar.CompletedReplyCache;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompletedReplyCache_TestCase {
+
+    private static final String CORRELATION_ID = "abc-1";
+
+    @Test
+    void shouldReturnReplyToUserThatItWasSentTo() {
+        var cache = new CompletedReplyCache(true, Duration.ofMinutes(1), 1_000_000);
+        var reply = new CompletedReplyCache.CompletedReply("user-a", Map.of(), new byte[]{1, 2, 3});
+        cache.put(CORRELATION_ID, reply);
+        assertThat(cache.get(CORRELATION_ID, "user-a")).contains(reply);
+        assertThat(cache.get(CORRELATION_ID, "user-b")).isEmpty();
+        assertThat(cache.get("abc-2", "user-a")).isEmpty();
+    }
+
+    @Test
+    void shouldNotCacheRepliesIfNotEnabled() {
+        var cache = new CompletedReplyCache(false, Duration.ofMinutes(1), 1_000_000);
+        cache.put(CORRELATION_ID, new CompletedReplyCache.CompletedReply("user-a", Map.of(), new byte[]{1}));
+        assertThat(cache.get(CORRELATION_ID, "user-a")).isEmpty();
+    }
+}
@@ -0,0 +1,52 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import edu.stanford.protege.webprotege.ipc.pulsar.CorrelationIdGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the cost of generating correlation ids with {@link CorrelationIdGenerator}, with a single shared counter
+ * and with {@link UUID#randomUUID()} when many threads execute requests at once.  Run with
+ * {@code java -cp <test classpath> edu.stanford.protege.webprotege.ipc.CorrelationIdGenerator_Benchmark}.  The
+ * difference between the striped and the shared counter only shows on a machine with several cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class CorrelationIdGenerator_Benchmark {
+
+    private final CorrelationIdGenerator generator = new CorrelationIdGenerator();
+
+    private final AtomicLong sharedCounter = new AtomicLong();
+
+    private final String prefix = "1b1zzg2lkz3al-";
+
+    @Benchmark
+    public String stripedCounter() {
+        return generator.next();
+    }
+
+    @Benchmark
+    public String sharedCounter() {
+        return prefix + Long.toString(sharedCounter.getAndIncrement(), 36);
+    }
+
+    @Benchmark
+    public String randomUuid() {
+        return UUID.randomUUID().toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CorrelationIdGenerator_Benchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,59 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import edu.stanford.protege.webprotege.ipc.pulsar.CorrelationIdGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CorrelationIdGenerator_TestCase {
+
+    @Test
+    void shouldGenerateDistinctIdsConcurrently() throws InterruptedException {
+        var generator = new CorrelationIdGenerator();
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        var executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            executor.execute(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    ids.add(generator.next());
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+        assertThat(ids).hasSize(80_000);
+    }
+
+    @Test
+    void shouldGenerateDistinctIdsFromDifferentStripes() throws InterruptedException {
+        var generator = new CorrelationIdGenerator(8);
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < 32; i++) {
+            var thread = new Thread(() -> {
+                for (int j = 0; j < 1_000; j++) {
+                    ids.add(generator.next());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+        assertThat(ids).hasSize(32_000);
+    }
+
+    @Test
+    void shouldGenerateDistinctIdsAcrossGenerators() {
+        var first = new CorrelationIdGenerator();
+        var second = new CorrelationIdGenerator();
+        assertThat(first.next()).isNotEqualTo(second.next());
+    }
+}
@@ -0,0 +1,130 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import edu.stanford.protege.webprotege.ipc.pulsar.KeyedSerialExecutor;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KeyedSerialExecutor_TestCase {
+
+    @Test
+    void shouldRunTasksForSameKeyInOrderAfterPreviousTaskCompletes() {
+        var executor = new KeyedSerialExecutor(Runnable::run, 10);
+        List<String> started = new ArrayList<>();
+        var first = new CompletableFuture<Void>();
+        executor.execute("P1", () -> {
+            started.add("A");
+            return first;
+        });
+        executor.execute("P1", () -> {
+            started.add("B");
+            return CompletableFuture.completedFuture(null);
+        });
+        executor.execute("P1", () -> {
+            started.add("C");
+            return CompletableFuture.completedFuture(null);
+        });
+        assertThat(started).containsExactly("A");
+        assertThat(executor.getQueuedTaskCount()).isEqualTo(2);
+
+        first.complete(null);
+
+        assertThat(started).containsExactly("A", "B", "C");
+        assertThat(executor.getActiveKeyCount()).isZero();
+    }
+
+    @Test
+    void shouldRunTasksForDifferentKeysIndependently() {
+        var executor = new KeyedSerialExecutor(Runnable::run, 10);
+        List<String> started = new ArrayList<>();
+        executor.execute("P1", () -> {
+            started.add("A");
+            return new CompletableFuture<>();
+        });
+        executor.execute("P2", () -> {
+            started.add("B");
+            return new CompletableFuture<>();
+        });
+        assertThat(started).containsExactly("A", "B");
+        assertThat(executor.getActiveKeyCount()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldRunNextTaskIfPreviousTaskFails() {
+        var executor = new KeyedSerialExecutor(Runnable::run, 10);
+        List<String> started = new ArrayList<>();
+        executor.execute("P1", () -> {
+            throw new RuntimeException("Failed");
+        });
+        executor.execute("P1", () -> {
+            started.add("B");
+            return CompletableFuture.failedFuture(new RuntimeException("Failed"));
+        });
+        executor.execute("P1", () -> {
+            started.add("C");
+            return CompletableFuture.completedFuture(null);
+        });
+        assertThat(started).containsExactly("B", "C");
+        assertThat(executor.getActiveKeyCount()).isZero();
+    }
+
+    @Test
+    void shouldNotAcceptTaskWhenQueueForKeyIsFull() {
+        var executor = new KeyedSerialExecutor(Runnable::run, 2);
+        List<String> started = new ArrayList<>();
+        var first = new CompletableFuture<Void>();
+        executor.execute("P1", () -> first);
+        assertThat(executor.execute("P1", () -> {
+            started.add("B");
+            return CompletableFuture.completedFuture(null);
+        })).isTrue();
+        assertThat(executor.execute("P1", () -> {
+            started.add("C");
+            return CompletableFuture.completedFuture(null);
+        })).isTrue();
+        assertThat(executor.execute("P1", () -> {
+            started.add("D");
+            return CompletableFuture.completedFuture(null);
+        })).isFalse();
+        assertThat(executor.execute("P2", () -> {
+            started.add("E");
+            return CompletableFuture.completedFuture(null);
+        })).isTrue();
+
+        first.complete(null);
+
+        assertThat(started).containsExactly("E", "B", "C");
+    }
+
+    @Test
+    void shouldStartQueuedTaskOnExecutorRatherThanOnCompletingThread() throws Exception {
+        var dispatchExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "dispatch-thread"));
+        try {
+            var executor = new KeyedSerialExecutor(dispatchExecutor, 10);
+            var first = new CompletableFuture<Void>();
+            var second = new CompletableFuture<Void>();
+            var startingThread = new AtomicReference<String>();
+            executor.execute("P1", () -> first);
+            executor.execute("P1", () -> {
+                startingThread.set(Thread.currentThread().getName());
+                second.complete(null);
+                return second;
+            });
+            var completingThread = new Thread(() -> first.complete(null), "completing-thread");
+            completingThread.start();
+            completingThread.join();
+
+            second.get(5, TimeUnit.SECONDS);
+            assertThat(startingThread.get()).isEqualTo("dispatch-thread");
+        } finally {
+            dispatchExecutor.shutdownNow();
+        }
+    }
+}
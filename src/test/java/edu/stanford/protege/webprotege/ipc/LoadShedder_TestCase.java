@@ -0,0 +1,86 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import edu.stanford.protege.webprotege.ipc.pulsar.LoadShedder;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LoadShedder_TestCase {
+
+    @Test
+    void shouldBeOverloadedWhenMaxInFlightIsReached() {
+        var loadShedder = new LoadShedder(LoadShedder.Mode.REJECT, 2, Duration.ofSeconds(1), Duration.ofSeconds(10));
+        loadShedder.onStart();
+        assertThat(loadShedder.isOverloaded()).isFalse();
+        loadShedder.onStart();
+        assertThat(loadShedder.isOverloaded()).isTrue();
+        loadShedder.onComplete(1_000);
+        assertThat(loadShedder.isOverloaded()).isFalse();
+    }
+
+    @Test
+    void shouldReduceLimitGraduallyWhenLatencyIsHigh() throws InterruptedException {
+        var loadShedder = new LoadShedder(LoadShedder.Mode.REJECT, 100, Duration.ofSeconds(1), Duration.ofSeconds(10));
+        var slowLatency = Duration.ofSeconds(2).toNanos();
+        for (int i = 0; i < 10; i++) {
+            loadShedder.onStart();
+            loadShedder.onComplete(slowLatency);
+        }
+        assertThat(loadShedder.getLatencyP99()).isEqualTo(Duration.ofSeconds(2));
+        // The limit is adjusted once per interval, however many requests complete in it
+        assertThat(loadShedder.getLimit()).isEqualTo(90);
+        loadShedder.onStart();
+        assertThat(loadShedder.isOverloaded()).isFalse();
+        loadShedder.onComplete(slowLatency);
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(110);
+            loadShedder.onStart();
+            loadShedder.onComplete(slowLatency);
+        }
+        assertThat(loadShedder.getLimit()).isEqualTo(53);
+    }
+
+    @Test
+    void shouldAlwaysAcceptRequestWhenIdle() throws InterruptedException {
+        var loadShedder = new LoadShedder(LoadShedder.Mode.REJECT, 2, Duration.ofSeconds(1), Duration.ofSeconds(10));
+        var slowLatency = Duration.ofSeconds(2).toNanos();
+        for (int i = 0; i < 3; i++) {
+            loadShedder.onStart();
+            loadShedder.onComplete(slowLatency);
+            Thread.sleep(110);
+        }
+        assertThat(loadShedder.getLimit()).isEqualTo(1);
+        assertThat(loadShedder.isOverloaded()).isFalse();
+        loadShedder.onStart();
+        assertThat(loadShedder.isOverloaded()).isTrue();
+    }
+
+    @Test
+    void shouldRaiseLimitWhenLatencyRecovers() throws InterruptedException {
+        var loadShedder = new LoadShedder(LoadShedder.Mode.REJECT, 100, Duration.ofSeconds(1), Duration.ofMillis(100));
+        for (int i = 0; i < 3; i++) {
+            loadShedder.onStart();
+            loadShedder.onComplete(Duration.ofSeconds(2).toNanos());
+            Thread.sleep(110);
+        }
+        var reducedLimit = loadShedder.getLimit();
+        assertThat(reducedLimit).isLessThan(100);
+        // The slow requests have left the window
+        loadShedder.onStart();
+        loadShedder.onComplete(Duration.ofMillis(10).toNanos());
+        assertThat(loadShedder.getLimit()).isGreaterThan(reducedLimit);
+    }
+
+    @Test
+    void shouldNotBeOverloadedWhenLatencyIsLow() {
+        var loadShedder = new LoadShedder(LoadShedder.Mode.REJECT, 100, Duration.ofSeconds(1), Duration.ofSeconds(10));
+        for (int i = 0; i < 10; i++) {
+            loadShedder.onStart();
+            loadShedder.onComplete(Duration.ofMillis(10).toNanos());
+        }
+        loadShedder.onStart();
+        assertThat(loadShedder.isOverloaded()).isFalse();
+    }
+}
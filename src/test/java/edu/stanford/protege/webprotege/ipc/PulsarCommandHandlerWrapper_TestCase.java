@@ -0,0 +1,469 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.stanford.protege.webprotege.authorization.*;
+import edu.stanford.protege.webprotege.common.ProjectId;
+import edu.stanford.protege.webprotege.common.Request;
+import edu.stanford.protege.webprotege.common.Response;
+import edu.stanford.protege.webprotege.common.UserId;
+import edu.stanford.protege.webprotege.ipc.pulsar.*;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.tck.TestObservationRegistry;
+import io.micrometer.observation.tck.TestObservationRegistryAssert;
+import org.apache.pulsar.client.api.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests how a {@link PulsarCommandHandlerWrapper} handles request messages.  The broker is replaced by a mock
+ * consumer, whose listener is given request messages directly, and by a mock reply sender.
+ */
+public class PulsarCommandHandlerWrapper_TestCase {
+
+    private static final String CHANNEL = "webprotege-tests.wrapper-test-request";
+
+    private static final String REPLY_CHANNEL = "webprotege-tests.wrapper-test-request--replies";
+
+    private static final String USER_ID = "JohnSmith";
+
+    private static final String SLOW_ID = "slow";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final AtomicInteger handledRequestCount = new AtomicInteger();
+
+    private final AtomicInteger cancelledRequestCount = new AtomicInteger();
+
+    private final AtomicReference<Thread> handlerThread = new AtomicReference<>();
+
+    private PulsarClient pulsarClient;
+
+    private ConsumerBuilder<byte[]> consumerBuilder;
+
+    private Consumer<byte[]> consumer;
+
+    private PulsarReplySender replySender;
+
+    private TypedMessageBuilder<byte[]> replyBuilder;
+
+    private CompletedReplyCache completedReplyCache = new CompletedReplyCache(false, Duration.ofMinutes(1), 1_000_000);
+
+    private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+
+    private CommandHandler<TestRequest, TestResponse> handler = new TestCommandHandler();
+
+    private int handlerThreads = 0;
+
+    private LoadShedder loadShedder = null;
+
+    private boolean keyShared = false;
+
+    private ChunkingSettings chunkingSettings = new ChunkingSettings(false, 10, Duration.ofMinutes(1));
+
+    private CommandExecutor<GetAuthorizedActionsRequest, GetAuthorizedActionsResponse> authorizedActionsExecutor =
+            (request, executionContext) -> CompletableFuture.failedFuture(new IllegalStateException());
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        pulsarClient = mock(PulsarClient.class);
+        consumerBuilder = (ConsumerBuilder<byte[]>) mock(ConsumerBuilder.class, RETURNS_SELF);
+        when(pulsarClient.newConsumer()).thenReturn(consumerBuilder);
+        consumer = mock(Consumer.class);
+        when(consumerBuilder.subscribe()).thenReturn(consumer);
+        replyBuilder = mock(TypedMessageBuilder.class, RETURNS_SELF);
+        replySender = mock(PulsarReplySender.class);
+        when(replySender.newReply(anyString(), anyString(), anyString(), anyString())).thenReturn(replyBuilder);
+        when(replySender.newReply(anyString(), anyString(), anyString(), anyString(), anyInt())).thenReturn(replyBuilder);
+        when(replySender.send(any(), anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * Tests that a request whose deadline has passed when it is received is acknowledged and dropped, without being
+     * handed to the handler and without a reply, when expired requests are dropped
+     */
+    @Test
+    void shouldDropRequestWhoseDeadlineHasPassed() throws Exception {
+        var wrapper = createWrapper(true, 16);
+        var message = requestMessage("the-correlation-id", new TestRequest("A"), System.currentTimeMillis() - 1000);
+        receive(wrapper, message);
+        assertThat(handledRequestCount.get()).isZero();
+        assertThat(wrapper.getExpiredRequestCount()).isEqualTo(1);
+        verify(consumer).acknowledgeAsync(message);
+        verify(replySender, never()).newReply(anyString(), anyString(), anyString(), anyString(), anyInt());
+    }
+
+    /**
+     * Tests that a request whose deadline has not passed is handled and replied to
+     */
+    @Test
+    void shouldHandleRequestWhoseDeadlineHasNotPassed() throws Exception {
+        var wrapper = createWrapper(true, 16);
+        var message = requestMessage("the-correlation-id", new TestRequest("A"), System.currentTimeMillis() + 60_000);
+        receive(wrapper, message);
+        assertThat(handledRequestCount.get()).isEqualTo(1);
+        assertThat(wrapper.getExpiredRequestCount()).isZero();
+        var response = objectMapper.writeValueAsBytes(new TestResponse("A"));
+        verify(replySender).newReply(REPLY_CHANNEL, CHANNEL, "the-correlation-id", USER_ID, response.length);
+        verify(replyBuilder).value(response);
+    }
+
+    /**
+     * Tests that the deadline of a request is ignored when expired requests are not dropped
+     */
+    @Test
+    void shouldHandleExpiredRequestWhenExpiredRequestsAreNotDropped() throws Exception {
+        var wrapper = createWrapper(false, 16);
+        var message = requestMessage("the-correlation-id", new TestRequest("A"), System.currentTimeMillis() - 1000);
+        receive(wrapper, message);
+        assertThat(handledRequestCount.get()).isEqualTo(1);
+        assertThat(wrapper.getExpiredRequestCount()).isZero();
+        verify(replySender).newReply(eq(REPLY_CHANNEL), eq(CHANNEL), eq("the-correlation-id"), eq(USER_ID), anyInt());
+    }
+
+    /**
+     * Tests that a request in a batch whose deadline passes while it waits for an earlier request in the batch is
+     * not handed to the handler, and is answered with a gateway timeout error (HTTP 504) in the batch reply
+     */
+    @Test
+    void shouldAnswerBatchItemWhoseDeadlinePassesWithGatewayTimeout() throws Exception {
+        // One request at a time, so that the second request waits for the slow first request
+        var wrapper = createWrapper(true, 1);
+        var message = requestMessage("the-correlation-id",
+                                     List.of(new TestRequest(SLOW_ID), new TestRequest("B")),
+                                     System.currentTimeMillis() + 150);
+        when(message.hasProperty(Headers.BATCH)).thenReturn(true);
+        receive(wrapper, message);
+
+        var replyValue = ArgumentCaptor.forClass(byte[].class);
+        verify(replyBuilder, timeout(5000)).value(replyValue.capture());
+        var items = objectMapper.readTree(replyValue.getValue());
+        assertThat(items).hasSize(2);
+        assertThat(items.get(0).get("response").get("id").asText()).isEqualTo(SLOW_ID);
+        assertThat(items.get(1).get("statusCode").asInt()).isEqualTo(504);
+        assertThat(handledRequestCount.get()).isEqualTo(1);
+    }
+
+    /**
+     * Tests that a request that is redelivered with the same correlation id after it has been replied to is not
+     * handled again, and that the reply that was sent is replayed
+     */
+    @Test
+    void shouldReplayReplyToRedeliveredRequest() throws Exception {
+        completedReplyCache = new CompletedReplyCache(true, Duration.ofMinutes(1), 1_000_000);
+        var wrapper = createWrapper(true, 16);
+        var message = requestMessage("the-correlation-id", new TestRequest("A"), System.currentTimeMillis() + 60_000);
+        receive(wrapper, message);
+        var redeliveredMessage = requestMessage("the-correlation-id", new TestRequest("A"), System.currentTimeMillis() + 60_000);
+        receive(wrapper, redeliveredMessage);
+
+        assertThat(handledRequestCount.get()).isEqualTo(1);
+        verify(consumer).acknowledgeAsync(redeliveredMessage);
+        verify(replySender, times(2)).newReply(eq(REPLY_CHANNEL), eq(CHANNEL), eq("the-correlation-id"), eq(USER_ID), anyInt());
+        verify(replySender, times(2)).send(replyBuilder, CHANNEL, "the-correlation-id");
+        var response = objectMapper.writeValueAsBytes(new TestResponse("A"));
+        verify(replyBuilder, times(2)).value(response);
+        assertThat(completedReplyCache.getStats().hitCount()).isEqualTo(1);
+    }
+
+    /**
+     * Tests that a request that is redelivered while it is still being handled is not handled a second time
+     */
+    @Test
+    void shouldIgnoreRequestThatIsRedeliveredWhileInFlight() throws Exception {
+        completedReplyCache = new CompletedReplyCache(true, Duration.ofMinutes(1), 1_000_000);
+        var wrapper = createWrapper(true, 16);
+        var message = requestMessage("the-correlation-id", new TestRequest(SLOW_ID), System.currentTimeMillis() + 60_000);
+        receive(wrapper, message);
+        var redeliveredMessage = requestMessage("the-correlation-id", new TestRequest(SLOW_ID), System.currentTimeMillis() + 60_000);
+        receive(wrapper, redeliveredMessage);
+        verify(consumer).acknowledgeAsync(redeliveredMessage);
+
+        verify(replyBuilder, timeout(5000)).value(objectMapper.writeValueAsBytes(new TestResponse(SLOW_ID)));
+        assertThat(handledRequestCount.get()).isEqualTo(1);
+        verify(replySender, times(1)).newReply(eq(REPLY_CHANNEL), eq(CHANNEL), eq("the-correlation-id"), eq(USER_ID), anyInt());
+    }
+
+    /**
+     * Tests that handling a request is observed as a whole, and stage by stage, and that the observations are tagged
+     * with the channel, the stage and the status of the request
+     */
+    @Test
+    void shouldObserveStagesOfHandling() throws Exception {
+        var testObservationRegistry = TestObservationRegistry.create();
+        observationRegistry = testObservationRegistry;
+        var wrapper = createWrapper(true, 16);
+        receive(wrapper, requestMessage("the-correlation-id", new TestRequest("A"), System.currentTimeMillis() + 60_000));
+
+        TestObservationRegistryAssert.assertThat(testObservationRegistry)
+                                     .hasNumberOfObservationsWithNameEqualTo(CommandObservations.HANDLE, 1)
+                                     .hasObservationWithNameEqualTo(CommandObservations.HANDLE)
+                                     .that()
+                                     .hasBeenStopped()
+                                     .hasLowCardinalityKeyValue(CommandObservations.CHANNEL, CHANNEL)
+                                     .hasLowCardinalityKeyValue(CommandObservations.STATUS, "200");
+        TestObservationRegistryAssert.assertThat(testObservationRegistry)
+                                     .forAllObservationsWithNameEqualTo(CommandObservations.HANDLE_STAGE, observation ->
+                                             observation.hasLowCardinalityKeyValue(CommandObservations.CHANNEL, CHANNEL))
+                                     .hasHandledContextsThatSatisfy(contexts -> assertThat(contexts)
+                                             .filteredOn(context -> context.getName().equals(CommandObservations.HANDLE_STAGE))
+                                             .extracting(context -> context.getLowCardinalityKeyValue(CommandObservations.STAGE).getValue())
+                                             .containsExactlyInAnyOrder(CommandObservations.STAGE_PARSE,
+                                                                        CommandObservations.STAGE_HANDLER,
+                                                                        CommandObservations.STAGE_SERIALIZE));
+    }
+
+    /**
+     * Tests that a request to a handler that requires no capabilities is authorized, even if the subject may not
+     * perform any actions on the target resource
+     */
+    @Test
+    void shouldAuthorizeRequestWhenNoCapabilitiesAreRequired() throws Exception {
+        handler = new TestAuthorizedCommandHandler(Set.of());
+        authorizedActionsExecutor = authorizedActions(Set.of());
+        var wrapper = createWrapper(true, 16);
+        receive(wrapper, requestMessage("the-correlation-id", new TestRequest("A"), System.currentTimeMillis() + 60_000));
+
+        verify(replyBuilder, timeout(5000)).value(objectMapper.writeValueAsBytes(new TestResponse("A")));
+        assertThat(handledRequestCount.get()).isEqualTo(1);
+        verify(replyBuilder, never()).property(eq(Headers.ERROR), anyString());
+    }
+
+    /**
+     * Tests that a request is authorized if the subject may perform all of the required capabilities
+     */
+    @Test
+    void shouldAuthorizeRequestWhenAllCapabilitiesAreAuthorized() throws Exception {
+        handler = new TestAuthorizedCommandHandler(Set.of(new ActionId("ViewProject"), new ActionId("EditOntology")));
+        authorizedActionsExecutor = authorizedActions(Set.of(new ActionId("ViewProject"), new ActionId("EditOntology")));
+        var wrapper = createWrapper(true, 16);
+        receive(wrapper, requestMessage("the-correlation-id", new TestRequest("A"), System.currentTimeMillis() + 60_000));
+
+        verify(replyBuilder, timeout(5000)).value(objectMapper.writeValueAsBytes(new TestResponse("A")));
+        assertThat(handledRequestCount.get()).isEqualTo(1);
+    }
+
+    /**
+     * Tests that a request is not handed to the handler, and is answered with an error, if the subject may not
+     * perform one of the required capabilities
+     */
+    @Test
+    void shouldRejectRequestWhenOneCapabilityIsNotAuthorized() throws Exception {
+        handler = new TestAuthorizedCommandHandler(Set.of(new ActionId("ViewProject"), new ActionId("EditOntology")));
+        authorizedActionsExecutor = authorizedActions(Set.of(new ActionId("ViewProject")));
+        var wrapper = createWrapper(true, 16);
+        receive(wrapper, requestMessage("the-correlation-id", new TestRequest("A"), System.currentTimeMillis() + 60_000));
+
+        verify(replyBuilder, timeout(5000)).property(eq(Headers.ERROR), anyString());
+        assertThat(handledRequestCount.get()).isZero();
+    }
+
+    /**
+     * Tests that cancelling a local request stops the handler
+     */
+    @Test
+    void shouldStopHandlerWhenLocalRequestIsCancelled() {
+        var wrapper = createWrapper(true, 16);
+        var response = wrapper.handleLocalRequest(new TestRequest(SLOW_ID), new ExecutionContext(new UserId(USER_ID), ""));
+        assertThat(handledRequestCount.get()).isEqualTo(1);
+        response.cancel(false);
+        assertThat(cancelledRequestCount.get()).isEqualTo(1);
+    }
+
+    /**
+     * Tests that a local request is handled on the handler's own executor, if it has one
+     */
+    @Test
+    void shouldHandleLocalRequestOnHandlerExecutor() throws Exception {
+        handlerThreads = 1;
+        var wrapper = createWrapper(true, 16);
+        var response = wrapper.handleLocalRequest(new TestRequest("A"), new ExecutionContext(new UserId(USER_ID), ""))
+                              .get(5, TimeUnit.SECONDS);
+        assertThat(response.getId()).isEqualTo("A");
+        assertThat(handlerThread.get().getName()).startsWith("command-handler-" + CHANNEL);
+    }
+
+    /**
+     * Tests that a local request is rejected with a service unavailable error (HTTP 503) while the handler is
+     * overloaded, even if the load shedder pauses the consumer rather than rejecting requests
+     */
+    @Test
+    void shouldRejectLocalRequestWhenOverloaded() {
+        loadShedder = new LoadShedder(LoadShedder.Mode.PAUSE, 1, Duration.ofSeconds(10), Duration.ofSeconds(10));
+        var wrapper = createWrapper(true, 16);
+        var executionContext = new ExecutionContext(new UserId(USER_ID), "");
+        var slowResponse = wrapper.handleLocalRequest(new TestRequest(SLOW_ID), executionContext);
+        var rejectedResponse = wrapper.handleLocalRequest(new TestRequest("A"), executionContext);
+        assertThatThrownBy(() -> rejectedResponse.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(CommandExecutionException.class)
+                .matches(throwable -> ((CommandExecutionException) throwable.getCause()).getStatusCode() == 503);
+        assertThat(handledRequestCount.get()).isEqualTo(1);
+        assertThat(slowResponse.join().getId()).isEqualTo(SLOW_ID);
+    }
+
+    /**
+     * Tests that a wrapper for a Key_Shared subscription cannot be created if chunking is enabled, because Pulsar does
+     * not reassemble chunked requests on Key_Shared subscriptions
+     */
+    @Test
+    void shouldNotCreateKeySharedWrapperWhenChunkingIsEnabled() {
+        keyShared = true;
+        chunkingSettings = new ChunkingSettings(true, 10, Duration.ofMinutes(1));
+        assertThatThrownBy(() -> createWrapper(true, 16))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining(CHANNEL);
+        verify(pulsarClient, never()).newConsumer();
+    }
+
+    private static CommandExecutor<GetAuthorizedActionsRequest, GetAuthorizedActionsResponse> authorizedActions(Set<ActionId> actionIds) {
+        return (request, executionContext) -> CompletableFuture.completedFuture(new GetAuthorizedActionsResponse(request.resource(),
+                                                                                                                 request.subject(),
+                                                                                                                 actionIds));
+    }
+
+    private PulsarCommandHandlerWrapper<TestRequest, TestResponse> createWrapper(boolean dropExpiredRequests,
+                                                                                int batchConcurrency) {
+        var wrapper = new PulsarCommandHandlerWrapper<>("TestApplication",
+                                                        "TestTenant",
+                                                        pulsarClient,
+                                                        handler,
+                                                        objectMapper,
+                                                        replySender,
+                                                        authorizedActionsExecutor,
+                                                        new AuthorizationStatusCache(false, Duration.ofMinutes(1), 100),
+                                                        completedReplyCache,
+                                                        batchConcurrency,
+                                                        handlerThreads,
+                                                        16,
+                                                        keyShared,
+                                                        100,
+                                                        dropExpiredRequests,
+                                                        loadShedder,
+                                                        observationRegistry,
+                                                        new CommandLogSampler(1.0, Map.of()),
+                                                        chunkingSettings);
+        wrapper.subscribe();
+        return wrapper;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void receive(PulsarCommandHandlerWrapper<TestRequest, TestResponse> wrapper, Message<byte[]> message) {
+        var listener = ArgumentCaptor.forClass(MessageListener.class);
+        verify(consumerBuilder).messageListener(listener.capture());
+        listener.getValue().received(consumer, message);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Message<byte[]> requestMessage(String correlationId, Object payload, long deadline) throws Exception {
+        var message = (Message<byte[]>) mock(Message.class);
+        when(message.getProperty(Headers.REPLY_CHANNEL)).thenReturn(REPLY_CHANNEL);
+        when(message.getProperty(Headers.CORRELATION_ID)).thenReturn(correlationId);
+        when(message.getProperty(Headers.USER_ID)).thenReturn(USER_ID);
+        when(message.getProperty(Headers.ACCESS_TOKEN)).thenReturn("");
+        when(message.getProperty(Headers.DEADLINE)).thenReturn(Long.toString(deadline));
+        when(message.getData()).thenReturn(objectMapper.writeValueAsBytes(payload));
+        return message;
+    }
+
+    private static class TestRequest implements Request<TestResponse> {
+
+        private final String id;
+
+        @JsonCreator
+        public TestRequest(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getChannel() {
+            return CHANNEL;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    private static class TestResponse implements Response {
+
+        private final String id;
+
+        @JsonCreator
+        public TestResponse(@JsonProperty("id") String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    private class TestCommandHandler implements CommandHandler<TestRequest, TestResponse> {
+
+        @Nonnull
+        @Override
+        public String getChannelName() {
+            return CHANNEL;
+        }
+
+        @Override
+        public Class<TestRequest> getRequestClass() {
+            return TestRequest.class;
+        }
+
+        @Override
+        public Mono<TestResponse> handleRequest(TestRequest request, ExecutionContext executionContext) {
+            handledRequestCount.incrementAndGet();
+            handlerThread.set(Thread.currentThread());
+            var response = Mono.just(new TestResponse(request.getId()));
+            return SLOW_ID.equals(request.getId()) ? response.delayElement(Duration.ofMillis(300))
+                                                            .doOnCancel(cancelledRequestCount::incrementAndGet) : response;
+        }
+    }
+
+    private class TestAuthorizedCommandHandler extends TestCommandHandler implements AuthorizedCommandHandler<TestRequest, TestResponse> {
+
+        private final Set<ActionId> requiredCapabilities;
+
+        private TestAuthorizedCommandHandler(Set<ActionId> requiredCapabilities) {
+            this.requiredCapabilities = requiredCapabilities;
+        }
+
+        @Nonnull
+        @Override
+        public Resource getTargetResource(TestRequest request) {
+            return ProjectResource.forProject(ProjectId.generate());
+        }
+
+        @Nonnull
+        @Override
+        public Collection<ActionId> getRequiredCapabilities() {
+            return requiredCapabilities;
+        }
+    }
+}
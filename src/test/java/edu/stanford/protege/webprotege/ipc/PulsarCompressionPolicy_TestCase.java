@@ -0,0 +1,79 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarCompressionPolicy;
+import org.apache.pulsar.client.api.CompressionType;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PulsarCompressionPolicy_TestCase {
+
+    private final PulsarCompressionPolicy policy = new PulsarCompressionPolicy(
+            CompressionType.NONE,
+            PulsarCompressionPolicy.parseCompressionTypes("command-responses=LZ4, webprotege.events.ProjectChanged=ZSTD, " +
+                                                                  "webprotege.entities.GetHierarchy=ZSTD, " +
+                                                                  "webprotege-gateway--replies--instance-1=SNAPPY"));
+
+    @Test
+    void shouldUseChannelCompressionType() {
+        assertThat(policy.getCompressionType("webprotege/events/webprotege.events.ProjectChanged"))
+                .isEqualTo(CompressionType.ZSTD);
+    }
+
+    @Test
+    void shouldUseNamespaceCompressionType() {
+        assertThat(policy.getCompressionType("webprotege/command-responses/webprotege.entities.GetEntity--replies"))
+                .isEqualTo(CompressionType.LZ4);
+    }
+
+    @Test
+    void shouldUseDefaultCompressionType() {
+        assertThat(policy.getCompressionType("webprotege/command-requests/webprotege.entities.GetEntity"))
+                .isEqualTo(CompressionType.NONE);
+        assertThat(PulsarCompressionPolicy.parseCompressionTypes("")).isEqualTo(Map.of());
+    }
+
+    @Test
+    void shouldUseRequestChannelCompressionTypeForReply() {
+        assertThat(policy.getReplyCompressionType("webprotege/command-responses/webprotege-gateway--replies--instance-2",
+                                                  "webprotege.entities.GetHierarchy"))
+                .isEqualTo(CompressionType.ZSTD);
+    }
+
+    @Test
+    void shouldUseReplyChannelCompressionTypeForReplyInPreferenceToRequestChannel() {
+        assertThat(policy.getReplyCompressionType("webprotege/command-responses/webprotege-gateway--replies--instance-1",
+                                                  "webprotege.entities.GetHierarchy"))
+                .isEqualTo(CompressionType.SNAPPY);
+    }
+
+    @Test
+    void shouldUseNamespaceCompressionTypeForReplyWhenRequestChannelHasNone() {
+        assertThat(policy.getReplyCompressionType("webprotege/command-responses/webprotege-gateway--replies--instance-2",
+                                                  "webprotege.entities.GetEntity"))
+                .isEqualTo(CompressionType.LZ4);
+    }
+
+    @Test
+    void shouldNotCompressReplySmallerThanMinReplySize() {
+        var policy = new PulsarCompressionPolicy(CompressionType.LZ4, Map.of(), 1024);
+        assertThat(policy.getReplyCompressionType("webprotege/command-responses/webprotege-gateway--replies--instance-1",
+                                                  "webprotege.entities.GetEntity",
+                                                  1023))
+                .isEqualTo(CompressionType.NONE);
+        assertThat(policy.getReplyCompressionType("webprotege/command-responses/webprotege-gateway--replies--instance-1",
+                                                  "webprotege.entities.GetEntity",
+                                                  1024))
+                .isEqualTo(CompressionType.LZ4);
+    }
+
+    @Test
+    void shouldCompressStreamedReplyChunksWhateverTheirSize() {
+        var policy = new PulsarCompressionPolicy(CompressionType.LZ4, Map.of(), 1024);
+        assertThat(policy.getReplyCompressionType("webprotege/command-responses/webprotege-gateway--replies--instance-1",
+                                                  "webprotege.entities.GetEntity"))
+                .isEqualTo(CompressionType.LZ4);
+    }
+}
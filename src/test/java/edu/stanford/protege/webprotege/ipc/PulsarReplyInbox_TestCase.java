@@ -0,0 +1,110 @@
+package edu.stanford.protege.webprotege.ipc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.stanford.protege.webprotege.ipc.pulsar.ChunkingSettings;
+import edu.stanford.protege.webprotege.ipc.pulsar.CommandTimeoutTimer;
+import edu.stanford.protege.webprotege.ipc.pulsar.PulsarReplyInbox;
+import edu.stanford.protege.webprotege.ipc.pulsar.ReplyAddressingMode;
+import org.apache.pulsar.client.api.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.mockito.Mockito.*;
+
+public class PulsarReplyInbox_TestCase {
+
+    private static final int STREAM_BUFFER_SIZE = 4;
+
+    private CommandTimeoutTimer timeoutTimer;
+
+    private PulsarReplyInbox replyInbox;
+
+    private Consumer<byte[]> consumer;
+
+    private MessageListener<byte[]> listener;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        timeoutTimer = new CommandTimeoutTimer(Duration.ofMillis(10), 64);
+        var pulsarClient = mock(PulsarClient.class);
+        var consumerBuilder = (ConsumerBuilder<byte[]>) mock(ConsumerBuilder.class, RETURNS_SELF);
+        when(pulsarClient.newConsumer()).thenReturn(consumerBuilder);
+        consumer = mock(Consumer.class);
+        when(consumerBuilder.subscribe()).thenReturn(consumer);
+        replyInbox = new PulsarReplyInbox("TestApplication",
+                                          "TestTenant",
+                                          pulsarClient,
+                                          new ObjectMapper(),
+                                          timeoutTimer,
+                                          ReplyAddressingMode.INSTANCE,
+                                          new ChunkingSettings(false, 10, Duration.ofMinutes(1)),
+                                          STREAM_BUFFER_SIZE);
+        replyInbox.getReplyChannel("webprotege-tests.inbox-test-request");
+        var listenerCaptor = ArgumentCaptor.forClass(MessageListener.class);
+        verify(consumerBuilder).messageListener(listenerCaptor.capture());
+        listener = listenerCaptor.getValue();
+    }
+
+    @AfterEach
+    void tearDown() {
+        timeoutTimer.stop();
+    }
+
+    @Test
+    void shouldEmitChunksThatAreConsumed() {
+        var chunks = replyInbox.registerStream("the-correlation-id", this::decode, Duration.ofSeconds(10));
+        StepVerifier.create(chunks)
+                    .then(() -> {
+                        for (int i = 0; i < 10; i++) {
+                            listener.received(consumer, chunk("the-correlation-id", i));
+                        }
+                        listener.received(consumer, streamEnd("the-correlation-id", 10));
+                    })
+                    .expectNextCount(10)
+                    .verifyComplete();
+    }
+
+    @Test
+    void shouldFailStreamWhenSubscriberDoesNotKeepUp() {
+        var chunks = replyInbox.registerStream("the-correlation-id", this::decode, Duration.ofSeconds(10));
+        StepVerifier.create(chunks, 0)
+                    .then(() -> {
+                        for (int i = 0; i < 100; i++) {
+                            listener.received(consumer, chunk("the-correlation-id", i));
+                        }
+                    })
+                    .thenRequest(Long.MAX_VALUE)
+                    // The chunks that fitted in the buffer are delivered before the error
+                    .thenConsumeWhile(chunk -> true)
+                    .expectErrorMatches(error -> error instanceof CommandExecutionException ex && ex.getStatusCode() == 503)
+                    .verify(Duration.ofSeconds(5));
+    }
+
+    private String decode(byte[] data) {
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Message<byte[]> chunk(String correlationId, int sequenceNumber) {
+        var message = (Message<byte[]>) mock(Message.class);
+        when(message.getProperty(Headers.CORRELATION_ID)).thenReturn(correlationId);
+        when(message.getProperty(Headers.STREAM)).thenReturn(Integer.toString(sequenceNumber));
+        when(message.getData()).thenReturn(("chunk-" + sequenceNumber).getBytes(StandardCharsets.UTF_8));
+        return message;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Message<byte[]> streamEnd(String correlationId, int chunkCount) {
+        var message = (Message<byte[]>) mock(Message.class);
+        when(message.getProperty(Headers.CORRELATION_ID)).thenReturn(correlationId);
+        when(message.getProperty(Headers.STREAM_END)).thenReturn(Integer.toString(chunkCount));
+        return message;
+    }
+}